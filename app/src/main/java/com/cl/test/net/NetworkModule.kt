@@ -41,12 +41,10 @@ object NetworkModule : BaseNetworkApi(){
         val loggingInterceptor = AndroidLoggingInterceptor.build(hideVerticalLine = true)
 
         builder.apply {
-            /** 设置缓存配置 缓存最大10M */
-//            cache(Cache(File(app.cacheDir, "cxk_cache"), 10 * 1024 * 1024))
             /** 添加Cookies自动持久化 */
 //            cookieJar(cookieJar)
-            /** 演示添加缓存拦截器 可传入缓存天数，不传默认7天 */
-//            addInterceptor(CacheInterceptor())
+            /** 演示添加缓存配置和缓存拦截器 缓存最大10M，缓存策略通过接口上的 @HttpCache 设置 */
+//            CacheInterceptor.install(this, Cache(File(app.cacheDir, "cxk_cache"), 10 * 1024 * 1024))
             /** 演示添加公共heads 注意要设置在日志拦截器之前，不然Log中会不显示head信息 */
             addInterceptor(MyHeadInterceptor())
             /** 演示token过期拦截器演示 */
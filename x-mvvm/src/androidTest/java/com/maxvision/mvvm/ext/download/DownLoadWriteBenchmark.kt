@@ -0,0 +1,282 @@
+package com.maxvision.mvvm.ext.download
+
+import android.os.Debug
+import android.os.SystemClock
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import kotlinx.coroutines.runBlocking
+import okhttp3.ResponseBody
+import okhttp3.ResponseBody.Companion.asResponseBody
+import okio.Buffer
+import okio.Source
+import okio.Timeout
+import okio.buffer
+import okio.sink
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.Closeable
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.channels.Channels
+import java.nio.channels.FileChannel
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 下载写入方式的性能对比，用实际数据选择 [FileTool.writeMode]、[FileTool.bufferSize] 的默认值
+ *
+ * 响应体由 [PatternSource] 边读边生成，包装成和网络响应相同的 ResponseBody，内存占用和文件大小无关，可以测试几 GB 的文件；
+ * 不经过网络，结果只反映写入方式的差别。除 [Strategy.SAVE_TO_FILE]（生产代码的完整路径）外都不修改 FileTool 的全局配置，
+ * 不经过限速、下载池和断点记录。分配字节数和 GC 次数读取 ART 的运行时统计，结果与设备存储相关，需要在真机上运行：
+ * ```
+ * ./gradlew :x-mvvm:connectedAndroidTest \
+ *     -Pandroid.testInstrumentationRunnerArguments.class=com.maxvision.mvvm.ext.download.DownLoadWriteBenchmark \
+ *     -Pandroid.testInstrumentationRunnerArguments.benchmarkSizesMb=1,64,2048
+ * ```
+ * 结果输出到 logcat，TAG 为 [TAG]
+ */
+@RunWith(AndroidJUnit4::class)
+class DownLoadWriteBenchmark {
+
+    /**
+     * 写入方式
+     */
+    enum class Strategy {
+        /** 直接内存缓冲池 + FileChannel.write，[DownLoadWriteMode.CHANNEL] */
+        CHANNEL,
+
+        /** 滑动窗口 mmap，[DownLoadWriteMode.MAPPED_WINDOW] */
+        MAPPED_WINDOW,
+
+        /** 旧版本的写法：rwd 打开后一次映射整个区域 */
+        MAPPED_WHOLE,
+
+        /** okio BufferedSink */
+        OKIO_SINK,
+
+        /** FileChannel.transferFrom，由通道自己读取，不使用读缓冲 */
+        TRANSFER_FROM,
+
+        /** 生产代码 [FileTool.saveToFile]，包含预分配、断点记录、限速检查，使用全局的 bufferSize 和 writeMode */
+        SAVE_TO_FILE
+    }
+
+    /**
+     * 单次测试结果
+     * @param bufferSize Int 读缓冲大小，TRANSFER_FROM 不使用，SAVE_TO_FILE 为 [FileTool.bufferSize]
+     * @param costMs Long 耗时(ms)，取多次中最快的一次
+     * @param allocatedBytes Long 期间分配的 Java 堆字节数，不支持时为 -1
+     * @param gcCount Long 期间 GC 的次数，不支持时为 -1
+     */
+    data class Result(
+        val strategy: Strategy,
+        val bufferSize: Int,
+        val size: Long,
+        val costMs: Long,
+        val allocatedBytes: Long,
+        val gcCount: Long
+    ) {
+        val mbPerSecond: Double
+            get() = if (costMs <= 0) 0.0 else size.toDouble() / MB * 1000 / costMs
+    }
+
+    /**
+     * 写入目标，读取循环相同的方式各自实现
+     */
+    private interface Target : Closeable {
+        fun write(buffer: ByteArray, offset: Int, length: Int)
+    }
+
+    /**
+     * 按固定的内容边读边生成 [size] 字节，不在内存中保存整个响应体
+     */
+    private class PatternSource(private var remaining: Long) : Source {
+
+        private val pattern = ByteArray(64 * KB) { it.toByte() }
+
+        private var offset = 0
+
+        override fun read(sink: Buffer, byteCount: Long): Long {
+            if (remaining == 0L) {
+                return -1
+            }
+            val count = minOf(byteCount, remaining, (pattern.size - offset).toLong()).toInt()
+            sink.write(pattern, offset, count)
+            offset = (offset + count) % pattern.size
+            remaining -= count
+            return count.toLong()
+        }
+
+        override fun timeout(): Timeout = Timeout.NONE
+
+        override fun close() {}
+    }
+
+    private lateinit var dir: File
+
+    @Before
+    fun setUp() {
+        dir = File(InstrumentationRegistry.getInstrumentation().targetContext.cacheDir, "download_write_benchmark")
+        dir.mkdirs()
+    }
+
+    @After
+    fun tearDown() {
+        dir.deleteRecursively()
+    }
+
+    @Test
+    fun compareWriteStrategies() {
+        val sizes = argument("benchmarkSizesMb", "1,16,64").split(',').map { it.trim().toLong() * MB }
+        val file = File(dir, "benchmark.bin")
+        val results = ArrayList<Result>()
+        for (size in sizes) {
+            FileTool.checkFreeSpace(dir, size)
+            for (strategy in Strategy.values()) {
+                val bufferSizes = when (strategy) {
+                    Strategy.TRANSFER_FROM -> listOf(0)
+                    Strategy.SAVE_TO_FILE -> listOf(FileTool.bufferSize)
+                    else -> BUFFER_SIZES
+                }
+                for (bufferSize in bufferSizes) {
+                    results += measure(file, strategy, bufferSize, size)
+                }
+            }
+        }
+        results.forEach {
+            Log.i(
+                TAG,
+                "${it.strategy} buffer ${FileTool.bytes2kb(it.bufferSize.toLong())} size ${FileTool.bytes2kb(it.size)}: " +
+                    "${"%.1f".format(it.mbPerSecond)}MB/s, ${it.costMs}ms, alloc ${it.allocatedBytes}B, gc ${it.gcCount}"
+            )
+        }
+    }
+
+    private fun measure(file: File, strategy: Strategy, bufferSize: Int, size: Long): Result {
+        var best: Result? = null
+        repeat(REPEAT) {
+            file.delete()
+            val body = PatternSource(size).buffer().asResponseBody(null, size)
+            val allocatedBefore = runtimeStat("art.gc.bytes-allocated")
+            val gcBefore = runtimeStat("art.gc.gc-count")
+            val start = SystemClock.elapsedRealtime()
+            download(body, file, strategy, bufferSize, size)
+            val cost = SystemClock.elapsedRealtime() - start
+            val allocated = runtimeStat("art.gc.bytes-allocated").let { if (it < 0 || allocatedBefore < 0) -1 else it - allocatedBefore }
+            val gc = runtimeStat("art.gc.gc-count").let { if (it < 0 || gcBefore < 0) -1 else it - gcBefore }
+            assertEquals("$strategy file length", size, file.length())
+            val result = Result(strategy, bufferSize, size, cost, allocated, gc)
+            if (best == null || cost < best!!.costMs) {
+                best = result
+            }
+        }
+        file.delete()
+        return best!!
+    }
+
+    private fun download(body: ResponseBody, file: File, strategy: Strategy, bufferSize: Int, size: Long) {
+        when (strategy) {
+            Strategy.TRANSFER_FROM -> body.use {
+                RandomAccessFile(file, "rw").use { accessFile ->
+                    val input = Channels.newChannel(it.byteStream())
+                    var position = 0L
+                    while (position < size) {
+                        val count = accessFile.channel.transferFrom(input, position, size - position)
+                        if (count <= 0) break
+                        position += count
+                    }
+                }
+            }
+
+            Strategy.SAVE_TO_FILE -> runBlocking {
+                FileTool.saveToFile(0, body, file.path, "download_write_benchmark", DiscardListener)
+            }
+
+            //其他方式共用同样的读取循环，只有写入文件的部分不同
+            else -> body.use {
+                val inputStream = it.byteStream()
+                open(strategy, file, bufferSize, size).use { target ->
+                    val buffer = ByteArray(bufferSize)
+                    var len: Int
+                    while (inputStream.read(buffer).also { len = it } != -1) {
+                        target.write(buffer, 0, len)
+                    }
+                }
+            }
+        }
+    }
+
+    private fun open(strategy: Strategy, file: File, bufferSize: Int, size: Long): Target {
+        return when (strategy) {
+            Strategy.MAPPED_WHOLE -> {
+                val accessFile = RandomAccessFile(file, "rwd")
+                val mapped = accessFile.channel.map(FileChannel.MapMode.READ_WRITE, 0, size)
+                object : Target {
+                    override fun write(buffer: ByteArray, offset: Int, length: Int) {
+                        mapped.put(buffer, offset, length)
+                    }
+
+                    override fun close() {
+                        accessFile.close()
+                    }
+                }
+            }
+
+            Strategy.OKIO_SINK -> {
+                val sink = file.sink().buffer()
+                object : Target {
+                    override fun write(buffer: ByteArray, offset: Int, length: Int) {
+                        sink.write(buffer, offset, length)
+                    }
+
+                    override fun close() = sink.close()
+                }
+            }
+
+            else -> {
+                val mode = if (strategy == Strategy.MAPPED_WINDOW) DownLoadWriteMode.MAPPED_WINDOW else DownLoadWriteMode.CHANNEL
+                val writer = DownLoadFileWriter.open(mode, file, 0, bufferSize)
+                object : Target {
+                    override fun write(buffer: ByteArray, offset: Int, length: Int) = writer.write(buffer, offset, length)
+                    override fun close() = writer.close()
+                }
+            }
+        }
+    }
+
+    private fun argument(name: String, defValue: String): String {
+        return InstrumentationRegistry.getArguments().getString(name) ?: defValue
+    }
+
+    private fun runtimeStat(name: String): Long {
+        return Debug.getRuntimeStat(name)?.toLongOrNull() ?: -1L
+    }
+
+    /**
+     * saveToFile 的回调，不做任何处理
+     */
+    private object DiscardListener : OnDownLoadListener {
+        override fun onUpdate(key: String, progress: Int, read: Long, count: Long, done: Boolean) {}
+        override fun onDownLoadPrepare(key: String) {}
+        override fun onDownLoadError(key: String, throwable: Throwable) {}
+        override fun onDownLoadSuccess(key: String, path: String, size: Long) {}
+        override fun onDownLoadPause(key: String) {}
+    }
+
+    companion object {
+        const val TAG = "DownLoadWriteBenchmark"
+
+        private const val KB = 1024
+        private const val MB = 1024 * 1024L
+
+        /** 4KB 是旧版本使用的读缓冲大小 */
+        private val BUFFER_SIZES = listOf(4 * KB, 64 * KB)
+
+        /** 每组重复次数 */
+        private const val REPEAT = 3
+    }
+}
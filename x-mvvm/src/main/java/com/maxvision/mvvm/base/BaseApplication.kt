@@ -1,12 +1,10 @@
 package com.maxvision.mvvm.base
 
 import android.app.Application
-import android.content.IntentFilter
-import android.net.ConnectivityManager
 import androidx.lifecycle.ProcessLifecycleOwner
 import com.maxvision.mvvm.ext.lifecycle.KtxAppLifeObserver
 import com.maxvision.mvvm.ext.lifecycle.KtxLifeCycleCallBack
-import com.maxvision.mvvm.network.manager.NetworkStateReceive
+import com.maxvision.mvvm.network.manager.NetworkStateManager
 
 /**
  * mvvm-framework 框架基于 Google 官方的 JetPack 构建，在使用 mvvm-framework 时，需遵循一些规范：
@@ -33,7 +31,6 @@ open class BaseApplication : Application() {
 
     companion object {
         lateinit var app: Application
-        private var mNetworkStateReceive: NetworkStateReceive? = null
         private var watchActivityLife = true
         private var watchAppLife = true
 
@@ -47,11 +44,7 @@ open class BaseApplication : Application() {
         }
         private fun install(application: Application) {
             app = application
-            mNetworkStateReceive = NetworkStateReceive()
-            app.registerReceiver(
-                mNetworkStateReceive,
-                IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION)
-            )
+            NetworkStateManager.instance.register(application)
             if (watchActivityLife) application.registerActivityLifecycleCallbacks(
                 KtxLifeCycleCallBack()
             )
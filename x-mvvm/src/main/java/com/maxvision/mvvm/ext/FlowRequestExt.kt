@@ -1,14 +1,20 @@
 package com.maxvision.mvvm.ext
 
 import com.maxvision.mvvm.base.viewmodel.BaseViewModel
+import com.maxvision.mvvm.ext.util.loge
 import com.maxvision.mvvm.network.AppException
 import com.maxvision.mvvm.network.BaseResponse
 import com.maxvision.mvvm.network.ExceptionHandle
+import com.maxvision.mvvm.network.cache.RequestCachePolicy
+import com.maxvision.mvvm.network.cache.ResponseCache
 import com.maxvision.mvvm.network.state.ResultState
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.flow
 import kotlinx.coroutines.flow.onStart
 import kotlinx.coroutines.flow.catch
+import kotlinx.coroutines.withContext
 
 /**
  * Flow 版本的网络请求扩展（现代化方案）
@@ -50,16 +56,36 @@ import kotlinx.coroutines.flow.catch
  * }
  * ```
  * 
- * @param isShowDialog 是否显示 Loading
+ * 使用缓存（先展示缓存，后台重新验证，数据变化时再发射一次）：
+ * ```kotlin
+ * fun getArticleList() = requestFlow(
+ *     isShowDialog = true,
+ *     cachePolicy = RequestCachePolicy.of<ApiPagerResponse<ArrayList<ArticleResponse>>>("article_list_0", ttlMs = 30_000)
+ * ) {
+ *     apiService.getArticleList()
+ * }
+ * ```
+ *
+ * @param isShowDialog 是否显示 Loading，有可用的缓存时不显示
  * @param loadingMessage Loading 提示文本
+ * @param cachePolicy RequestCachePolicy<T>? 缓存策略，为空时不使用缓存
  * @param block 网络请求体
  * @return Flow<ResultState<T>>
  */
 fun <T> BaseViewModel.requestFlow(
     isShowDialog: Boolean = false,
     loadingMessage: String = "请求网络中...",
+    cachePolicy: RequestCachePolicy<T>? = null,
     block: suspend () -> BaseResponse<T>
-): Flow<ResultState<T>> = flow {
+): Flow<ResultState<T>> = if (cachePolicy != null) {
+    cachedRequestFlow(isShowDialog, loadingMessage, cachePolicy) {
+        val response = block()
+        if (!response.isSucces()) {
+            throw AppException(response.getResponseCode(), response.getResponseMsg(), response.getResponseMsg())
+        }
+        response.getResponseData()
+    }
+} else flow {
     // 执行请求
     val response = block()
     
@@ -126,8 +152,11 @@ fun <T> BaseViewModel.requestFlow(
 fun <T> BaseViewModel.requestFlowNoCheck(
     isShowDialog: Boolean = false,
     loadingMessage: String = "请求网络中...",
+    cachePolicy: RequestCachePolicy<T>? = null,
     block: suspend () -> T
-): Flow<ResultState<T>> = flow {
+): Flow<ResultState<T>> = if (cachePolicy != null) {
+    cachedRequestFlow(isShowDialog, loadingMessage, cachePolicy, block)
+} else flow {
     // 执行请求
     val result = block()
     
@@ -177,10 +206,12 @@ fun <T> BaseViewModel.requestFlowNoCheck(
  */
 fun <T> BaseViewModel.simpleRequest(
     loadingMessage: String = "加载中...",
+    cachePolicy: RequestCachePolicy<T>? = null,
     block: suspend () -> BaseResponse<T>
 ): Flow<ResultState<T>> = requestFlow(
     isShowDialog = true,
     loadingMessage = loadingMessage,
+    cachePolicy = cachePolicy,
     block = block
 )
 
@@ -189,13 +220,79 @@ fun <T> BaseViewModel.simpleRequest(
  */
 fun <T> BaseViewModel.simpleRequestNoCheck(
     loadingMessage: String = "加载中...",
+    cachePolicy: RequestCachePolicy<T>? = null,
     block: suspend () -> T
 ): Flow<ResultState<T>> = requestFlowNoCheck(
     isShowDialog = true,
     loadingMessage = loadingMessage,
+    cachePolicy = cachePolicy,
     block = block
 )
 
+// ==================== 缓存 ====================
+
+/**
+ * 带缓存的请求，见 [RequestCachePolicy]
+ * 有可用的缓存时立即发射，不显示 Loading；后台请求失败时保留缓存的结果，只记录日志
+ * 发射的数据和 [ResponseCache] 内存中的对象是同一个实例，只读，需要修改时先复制
+ */
+private fun <T> BaseViewModel.cachedRequestFlow(
+    isShowDialog: Boolean,
+    loadingMessage: String,
+    cachePolicy: RequestCachePolicy<T>,
+    block: suspend () -> T
+): Flow<ResultState<T>> = flow {
+    val cached = withContext(Dispatchers.IO) {
+        ResponseCache.get(cachePolicy)
+    }?.takeIf { it.age() <= cachePolicy.ttlMs + cachePolicy.maxStaleMs }
+    if (cached != null) {
+        @Suppress("UNCHECKED_CAST")
+        emit(ResultState.onAppSuccess(cached.value as T))
+        if (cached.age() <= cachePolicy.ttlMs) {
+            return@flow
+        }
+    }
+    val showLoading = isShowDialog && cached == null
+    if (showLoading) {
+        internalShowLoading(loadingMessage)
+        emit(ResultState.onAppLoading(loadingMessage))
+    }
+    //只捕获请求的异常，不能捕获下游收集时的异常
+    val result = try {
+        Result.success(block())
+    } catch (e: CancellationException) {
+        throw e
+    } catch (e: Exception) {
+        Result.failure(e)
+    } finally {
+        if (showLoading) {
+            internalDismissLoading()
+        }
+    }
+    result.onSuccess { data ->
+        //写入缓存失败（例如无法序列化）不影响请求结果，按数据已变化处理
+        val changed = try {
+            withContext(Dispatchers.IO) {
+                ResponseCache.put(cachePolicy, data)
+            }
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            "response cache ${cachePolicy.key} put error ${e.message}".loge()
+            true
+        }
+        if (cached == null || changed) {
+            emit(ResultState.onAppSuccess(data))
+        }
+    }.onFailure { e ->
+        if (cached == null) {
+            emit(ResultState.onAppError(ExceptionHandle.handleException(e)))
+        } else {
+            "revalidate ${cachePolicy.key} error ${e.message}".loge()
+        }
+    }
+}
+
 // ==================== 批量请求 ====================
 
 /**
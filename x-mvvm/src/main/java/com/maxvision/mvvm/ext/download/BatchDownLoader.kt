@@ -0,0 +1,217 @@
+package com.maxvision.mvvm.ext.download
+
+import android.os.SystemClock
+import com.maxvision.mvvm.ext.util.logi
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.launch
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.coroutines.coroutineContext
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 批量下载大量小文件
+ * 和单个下载不同，清单中的项不进入 [DownLoadPool]、不记录断点、没有单独的回调：
+ * 固定数量的 worker 依次从清单中取项，共用同一个 [DownLoadService]（同一个 OkHttpClient，HTTPS 下复用 HTTP/2 连接），
+ * 先写入临时文件，校验通过后再改名，中途失败不会留下不完整的文件
+ */
+internal object BatchDownLoader {
+
+    private const val TEMP_SUFFIX = ".part"
+
+    /**
+     * 汇总进度，按时间间隔采样回调
+     */
+    private class Tracker(
+        private val total: Int,
+        private val totalBytes: Long,
+        private val progressInterval: Long,
+        private val onProgress: (DownLoadBatchProgress) -> Unit
+    ) {
+        val downloadedBytes = AtomicLong()
+        val finished = AtomicInteger()
+        val skipped = AtomicInteger()
+        val failed = AtomicInteger()
+
+        private var lastProgressTime = 0L
+
+        fun onRead(len: Int) {
+            downloadedBytes.addAndGet(len.toLong())
+            publish(false)
+        }
+
+        fun onFinished() {
+            finished.incrementAndGet()
+            publish(finished.get() == total)
+        }
+
+        @Synchronized
+        fun publish(force: Boolean) {
+            val now = SystemClock.elapsedRealtime()
+            if (!force && now - lastProgressTime < progressInterval) {
+                return
+            }
+            lastProgressTime = now
+            onProgress(
+                DownLoadBatchProgress(
+                    total,
+                    finished.get(),
+                    skipped.get(),
+                    failed.get(),
+                    downloadedBytes.get(),
+                    totalBytes
+                )
+            )
+        }
+    }
+
+    /**
+     * 批量下载
+     * @param service DownLoadService 共用的下载服务
+     * @param manifest List<DownLoadManifestItem> 下载清单
+     * @param parallelism Int 同时下载的数量
+     * @param progressInterval Long 进度最小间隔(ms)
+     * @param onProgress Function1 整体进度，在下载线程回调
+     * @return DownLoadBatchResult
+     */
+    suspend fun downLoad(
+        service: DownLoadService,
+        manifest: List<DownLoadManifestItem>,
+        parallelism: Int,
+        progressInterval: Long,
+        onProgress: (DownLoadBatchProgress) -> Unit
+    ): DownLoadBatchResult {
+        //0 未完成 1 成功 2 跳过 3 失败
+        val outcomes = IntArray(manifest.size)
+        val errors = arrayOfNulls<Throwable>(manifest.size)
+        val tracker = Tracker(manifest.size, manifest.sumOf { it.size.coerceAtLeast(0) }, progressInterval, onProgress)
+        val next = AtomicInteger()
+        val workerCount = parallelism.coerceIn(1, manifest.size.coerceAtLeast(1))
+        "batch download ${manifest.size} items with $workerCount workers".logi()
+        coroutineScope {
+            repeat(workerCount) {
+                launch(Dispatchers.IO) {
+                    //每个 worker 复用一个缓冲区
+                    val buffer = ByteArray(FileTool.bufferSize)
+                    while (true) {
+                        val index = next.getAndIncrement()
+                        if (index >= manifest.size) break
+                        val item = manifest[index]
+                        try {
+                            if (isPresent(item, buffer)) {
+                                tracker.downloadedBytes.addAndGet(item.size.coerceAtLeast(0))
+                                tracker.skipped.incrementAndGet()
+                                outcomes[index] = 2
+                            } else {
+                                fetch(service, item, buffer, tracker)
+                                outcomes[index] = 1
+                            }
+                        } catch (e: CancellationException) {
+                            throw e
+                        } catch (throwable: Throwable) {
+                            "batch download ${item.url} error ${throwable.message}".logi()
+                            errors[index] = throwable
+                            tracker.failed.incrementAndGet()
+                            outcomes[index] = 3
+                        }
+                        tracker.onFinished()
+                    }
+                }
+            }
+        }
+        return DownLoadBatchResult(
+            manifest.filterIndexed { index, _ -> outcomes[index] == 1 },
+            manifest.filterIndexed { index, _ -> outcomes[index] == 2 },
+            manifest.indices.filter { outcomes[it] == 3 }.map {
+                DownLoadBatchResult.Failure(manifest[it], errors[it]!!)
+            }
+        )
+    }
+
+    /**
+     * 本地文件是否已经存在且大小、摘要一致
+     */
+    private fun isPresent(item: DownLoadManifestItem, buffer: ByteArray): Boolean {
+        val file = File(item.filePath)
+        if (!file.isFile || (item.size >= 0 && file.length() != item.size)) {
+            return false
+        }
+        val checksum = item.checksum
+        if (checksum?.expected == null) {
+            return true
+        }
+        val digest = checksum.createDigest()
+        FileInputStream(file).use { inputStream ->
+            var len: Int
+            while (inputStream.read(buffer).also { len = it } != -1) {
+                digest.update(buffer, 0, len)
+            }
+        }
+        return checksum.check(digest.digestHex()) == null
+    }
+
+    /**
+     * 下载单个文件，写入临时文件，校验通过后改名
+     */
+    private suspend fun fetch(
+        service: DownLoadService,
+        item: DownLoadManifestItem,
+        buffer: ByteArray,
+        tracker: Tracker
+    ) {
+        val target = File(item.filePath)
+        target.parentFile?.let {
+            if (!FileTool.createFile(it.path)) throw IOException("mkdirs file [${it.path}]  error")
+        }
+        val temp = File(item.filePath + TEMP_SUFFIX)
+        var read = 0L
+        try {
+            val response = service.downloadFile("bytes=0-", item.url)
+            val responseBody = response.body()
+            if (!response.isSuccessful || responseBody == null) {
+                responseBody?.close()
+                throw IOException("download ${item.url} failed, code ${response.code()}")
+            }
+            val digest = item.checksum?.createDigest()
+            responseBody.byteStream().use { inputStream ->
+                FileOutputStream(temp).use { outputStream ->
+                    var len: Int
+                    while (inputStream.read(buffer).also { len = it } != -1) {
+                        coroutineContext.ensureActive()
+                        outputStream.write(buffer, 0, len)
+                        digest?.update(buffer, 0, len)
+                        read += len
+                        DownLoadRateLimiter.acquire(item.url, len)
+                        tracker.onRead(len)
+                    }
+                }
+            }
+            if (item.size >= 0 && read != item.size) {
+                throw IOException("download ${item.url} size mismatch, expected ${item.size} but was $read")
+            }
+            if (digest != null) {
+                val expected = item.checksum.expected ?: item.checksum.headerName?.let { response.headers()[it] }
+                item.checksum.check(digest.digestHex(), expected)?.let { throw it }
+            }
+            if (target.exists()) {
+                target.delete()
+            }
+            if (!temp.renameTo(target)) {
+                throw IOException("rename ${temp.path} failed")
+            }
+        } catch (throwable: Throwable) {
+            temp.delete()
+            //失败的项不计入整体进度
+            tracker.downloadedBytes.addAndGet(-read)
+            throw throwable
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.maxvision.mvvm.ext.download
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 批量下载的整体进度
+ * @param total Int 清单总数
+ * @param finished Int 已经结束的数量（包含跳过和失败）
+ * @param skipped Int 本地已存在而跳过的数量
+ * @param failed Int 失败的数量
+ * @param downloadedBytes Long 已经下载的字节数
+ * @param totalBytes Long 清单中已知大小的总字节数
+ */
+data class DownLoadBatchProgress(
+    val total: Int,
+    val finished: Int,
+    val skipped: Int,
+    val failed: Int,
+    val downloadedBytes: Long,
+    val totalBytes: Long
+) {
+
+    /** 百分比，清单没有大小时按数量计算 */
+    val progress: Int
+        get() = when {
+            totalBytes > 0 -> (downloadedBytes * 100 / totalBytes).toInt().coerceAtMost(100)
+            total > 0 -> finished * 100 / total
+            else -> 100
+        }
+
+    val isDone: Boolean
+        get() = finished == total
+}
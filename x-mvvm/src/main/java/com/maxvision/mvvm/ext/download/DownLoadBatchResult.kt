@@ -0,0 +1,26 @@
+package com.maxvision.mvvm.ext.download
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 批量下载结果
+ * @param succeeded List<DownLoadManifestItem> 下载成功的项
+ * @param skipped List<DownLoadManifestItem> 本地已存在而跳过的项
+ * @param failures List<Failure> 失败的项
+ */
+data class DownLoadBatchResult(
+    val succeeded: List<DownLoadManifestItem>,
+    val skipped: List<DownLoadManifestItem>,
+    val failures: List<Failure>
+) {
+
+    /**
+     * 失败的项
+     * @param item DownLoadManifestItem 清单中的项
+     * @param throwable Throwable 失败原因
+     */
+    data class Failure(val item: DownLoadManifestItem, val throwable: Throwable)
+
+    val isSuccess: Boolean
+        get() = failures.isEmpty()
+}
@@ -0,0 +1,270 @@
+package com.maxvision.mvvm.ext.download
+
+import com.maxvision.mvvm.base.BaseApplication.Companion.app
+import com.maxvision.mvvm.ext.util.logi
+import java.io.File
+import java.io.FileInputStream
+import java.security.MessageDigest
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 按内容寻址的下载缓存
+ * 1. 文件按 SHA-256 保存在 [directory] 中，相同内容不同名字的文件只保存一份，调用方的路径是指向它的硬链接
+ * 2. 总大小超过 [maxBytes] 时按最后访问时间淘汰，访问时间记录在文件的修改时间上，不需要额外的索引文件
+ * 3. 正在使用的文件可以 [pin]，固定期间不会被淘汰
+ *
+ * 下载时开启 useCache 后：期望的 SHA-256 已经在缓存中时直接链接，不再请求网络；下载完成后加入缓存，
+ * 没有指定 SHA-256 校验时下载过程中同时计算，加入缓存时不再读取文件。
+ * 被淘汰的只是缓存中的链接，调用方路径上的文件仍然保留
+ *
+ * 缓存文件和调用方路径共用数据，所有原地写入（续传、分段、重新下载、从头下载）前都会通过
+ * [FileTool.unlinkShared] 断开链接，写入的是自己的副本，缓存中的内容不会被改写。
+ * 调用方自己不能原地修改拿到的文件，否则缓存中的内容一起被改掉，需要修改时先复制一份；
+ * [get] 时按大小检查，大小变化的缓存直接丢弃，大小不变的修改检查不出来
+ *
+ * 缓存目录默认在内部存储，硬链接需要和调用方路径在同一个分区，外部存储（FUSE）通常不支持硬链接。
+ * 无法链接时不复制出第二份：加入缓存时跳过；命中时没有其他使用者的话把缓存文件移动给调用方
+ *
+ * 使用示例：
+ * ```kotlin
+ * DownLoadCache.maxBytes = 256L * 1024 * 1024
+ * downLoadManager.downloadFlow(..., checksum = DownLoadChecksum.sha256(hash), useCache = true)
+ * // 使用期间固定
+ * DownLoadCache.pin(hash)
+ * ```
+ */
+object DownLoadCache {
+
+    /**
+     * 缓存目录，修改后重新扫描
+     */
+    var directory: File = File(app.filesDir, "download_cache")
+        @Synchronized set(value) {
+            field = value
+            loaded = false
+        }
+
+    /**
+     * 缓存的最大字节数，修改后立即淘汰
+     */
+    var maxBytes: Long = 512L * 1024 * 1024
+        set(value) {
+            field = value
+            trim()
+        }
+
+    private class Entry(val file: File, val size: Long, var lastAccess: Long)
+
+    //hash -> 缓存文件，按访问顺序排列
+    private val entryMap = LinkedHashMap<String, Entry>(16, 0.75f, true)
+
+    //hash -> 固定次数
+    private val pinMap = HashMap<String, Int>()
+
+    private var totalBytes = 0L
+
+    private var loaded = false
+
+    /**
+     * 缓存占用的字节数
+     */
+    @Synchronized
+    fun size(): Long {
+        ensureLoaded()
+        return totalBytes
+    }
+
+    /**
+     * 获取缓存的文件，同时更新访问时间
+     * @param hash String SHA-256（hex 或 base64）
+     * @return File? 不在缓存中时返回 null
+     */
+    @Synchronized
+    fun get(hash: String): File? {
+        ensureLoaded()
+        val key = DownLoadChecksum.normalize(hash)
+        val entry = entryMap[key] ?: return null
+        if (!entry.file.exists()) {
+            remove(key)
+            return null
+        }
+        if (entry.file.length() != entry.size) {
+            //调用方原地修改了共用的文件，内容已经不可信
+            "download cache $key modified, drop".logi()
+            entry.file.delete()
+            remove(key)
+            return null
+        }
+        touch(entry)
+        return entry.file
+    }
+
+    /**
+     * 把缓存中的文件链接到目标路径
+     * 不能链接时，没有其他使用者就把缓存文件移动过去（移出缓存），否则复制
+     * @return Boolean 不在缓存中时返回 false
+     */
+    fun linkTo(hash: String, target: File): Boolean {
+        val key = DownLoadChecksum.normalize(hash)
+        pin(key)
+        try {
+            val file = get(key) ?: return false
+            if (FileTool.link(file, target) || moveOut(key, file, target)) {
+                return true
+            }
+            FileTool.linkOrCopy(file, target)
+            return true
+        } finally {
+            unpin(key)
+        }
+    }
+
+    /**
+     * 只有当前调用固定了该文件时移动到目标路径并移出缓存
+     * @return Boolean 有其他使用者或者不能重命名（跨分区）时返回 false
+     */
+    @Synchronized
+    private fun moveOut(key: String, file: File, target: File): Boolean {
+        if ((pinMap[key] ?: 0) > 1) {
+            return false
+        }
+        target.parentFile?.mkdirs()
+        if (target.exists()) {
+            target.delete()
+        }
+        if (!file.renameTo(target)) {
+            return false
+        }
+        remove(key)
+        return true
+    }
+
+    /**
+     * 把文件加入缓存，缓存中已经有相同内容时把文件替换为指向缓存的链接
+     * 文件必须是完整、校验过的，缓存只按 hash 查找，不会再次校验
+     * @param file File 下载完成的文件
+     * @param hash String? 已知的 SHA-256（例如下载时已经计算过），为空时读取文件计算
+     * @return String 文件的 SHA-256
+     */
+    fun put(file: File, hash: String? = null): String {
+        val key = hash?.let { DownLoadChecksum.normalize(it) } ?: sha256(file)
+        val cached = synchronized(this) {
+            ensureLoaded()
+            entryMap[key]?.takeIf { it.file.exists() }?.also { touch(it) }
+        }
+        if (cached != null) {
+            if (cached.file.canonicalPath != file.canonicalPath) {
+                //重复的内容只保留一份，不能链接时保留调用方的文件，内容是一样的
+                FileTool.link(cached.file, file)
+            }
+            return key
+        }
+        val blob = blobFile(key)
+        if (!FileTool.link(file, blob)) {
+            //复制会占用双倍空间，不加入缓存
+            "download cache skip ${file.path}, hard link not supported".logi()
+            return key
+        }
+        synchronized(this) {
+            val entry = Entry(blob, blob.length(), System.currentTimeMillis())
+            entryMap.put(key, entry)?.let { totalBytes -= it.size }
+            totalBytes += entry.size
+            touch(entry)
+        }
+        trim()
+        return key
+    }
+
+    /**
+     * 固定缓存文件，可以多次调用，[unpin] 相同次数后解除
+     */
+    @Synchronized
+    fun pin(hash: String) {
+        val key = DownLoadChecksum.normalize(hash)
+        pinMap[key] = (pinMap[key] ?: 0) + 1
+    }
+
+    @Synchronized
+    fun unpin(hash: String) {
+        val key = DownLoadChecksum.normalize(hash)
+        val count = pinMap[key] ?: return
+        if (count <= 1) pinMap.remove(key) else pinMap[key] = count - 1
+        trim()
+    }
+
+    /**
+     * 按最后访问时间淘汰，直到总大小不超过 [maxBytes]
+     */
+    @Synchronized
+    fun trim() {
+        ensureLoaded()
+        val iterator = entryMap.entries.iterator()
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            val (key, entry) = iterator.next()
+            if (pinMap.containsKey(key)) continue
+            "download cache evict $key ${FileTool.bytes2kb(entry.size)}".logi()
+            entry.file.delete()
+            totalBytes -= entry.size
+            iterator.remove()
+        }
+    }
+
+    /**
+     * 清空缓存（固定的文件除外）
+     */
+    @Synchronized
+    fun clear() {
+        ensureLoaded()
+        entryMap.keys.filter { !pinMap.containsKey(it) }.forEach { key ->
+            entryMap[key]?.file?.delete()
+            remove(key)
+        }
+    }
+
+    private fun remove(key: String) {
+        entryMap.remove(key)?.let { totalBytes -= it.size }
+    }
+
+    private fun touch(entry: Entry) {
+        entry.lastAccess = System.currentTimeMillis()
+        entry.file.setLastModified(entry.lastAccess)
+    }
+
+    /**
+     * 第一次使用时扫描缓存目录，按修改时间恢复访问顺序
+     */
+    private fun ensureLoaded() {
+        if (loaded) return
+        loaded = true
+        entryMap.clear()
+        totalBytes = 0
+        directory.listFiles()
+            ?.flatMap { it.listFiles()?.toList() ?: emptyList() }
+            ?.filter { it.isFile }
+            ?.sortedBy { it.lastModified() }
+            ?.forEach { file ->
+                entryMap[file.name] = Entry(file, file.length(), file.lastModified())
+                totalBytes += file.length()
+            }
+    }
+
+    /**
+     * 按 hash 前两位分目录，避免单个目录文件过多
+     */
+    private fun blobFile(key: String): File {
+        return File(File(directory, key.take(2)), key)
+    }
+
+    private fun sha256(file: File): String {
+        val digest = MessageDigest.getInstance("SHA-256")
+        FileInputStream(file).use { inputStream ->
+            val buffer = ByteArray(FileTool.bufferSize)
+            var len: Int
+            while (inputStream.read(buffer).also { len = it } != -1) {
+                digest.update(buffer, 0, len)
+            }
+        }
+        return digest.digest().joinToString("") { "%02x".format(it) }
+    }
+}
@@ -0,0 +1,193 @@
+package com.maxvision.mvvm.ext.download
+
+import android.util.Base64
+import com.maxvision.mvvm.ext.util.logi
+import java.io.File
+import java.io.FileInputStream
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 下载校验配置，边下载边计算摘要，计算状态随断点一起记录，续传时不需要从头重新计算
+ *
+ * 使用示例：
+ * ```kotlin
+ * // 指定期望的摘要
+ * downLoadManager.downLoad(..., checksum = DownLoadChecksum.sha256("9f86d0..."))
+ * // 从响应头读取整个文件的摘要
+ * downLoadManager.downLoad(..., checksum = DownLoadChecksum.fromHeader("X-Checksum-Sha256"))
+ * ```
+ *
+ * @param algorithm String 算法，支持 [MD5]、[SHA256]
+ * @param expected String? 期望的摘要（hex 或 base64），为空时从 [headerName] 响应头读取
+ * @param headerName String? 携带整个文件摘要的响应头
+ */
+data class DownLoadChecksum(
+    val algorithm: String = SHA256,
+    val expected: String? = null,
+    val headerName: String? = null
+) {
+
+    /**
+     * 下载过程中的摘要计算
+     */
+    internal class Verifier(
+        private val key: String,
+        private val digest: ResumableDigest,
+        private val expected: String?
+    ) {
+
+        fun update(buffer: ByteArray, offset: Int, length: Int) {
+            digest.update(buffer, offset, length)
+        }
+
+        /**
+         * 记录摘要中间状态，和断点一起保存
+         */
+        fun save() {
+            DownLoadJournal.putBytes(stateKey(key), digest.saveState())
+        }
+
+        /**
+         * 校验结果
+         * @return DownLoadException.ChecksumMismatch? 校验通过返回 null
+         */
+        fun verify(): DownLoadException.ChecksumMismatch? {
+            val actual = digest.digestHex()
+            if (!expected.isNullOrEmpty() && normalize(expected) != actual) {
+                return DownLoadException.ChecksumMismatch(digest.algorithm, expected, actual)
+            }
+            if (expected.isNullOrEmpty()) {
+                "key $key 没有期望的摘要 ${digest.algorithm} $actual".logi()
+            }
+            if (isSha256(digest.algorithm)) {
+                //加入下载缓存时使用，不需要再读取一遍文件
+                verifiedMap[key] = actual
+            }
+            return null
+        }
+
+        /**
+         * 从文件重新计算，用于中间状态丢失或分段下载完成后
+         */
+        fun hashFile(filePath: String, length: Long) {
+            digest.reset()
+            FileInputStream(File(filePath)).use { inputStream ->
+                val buffer = ByteArray(1024 * 64)
+                var remaining = length
+                while (remaining > 0) {
+                    val len = inputStream.read(buffer, 0, minOf(buffer.size.toLong(), remaining).toInt())
+                    if (len == -1) break
+                    digest.update(buffer, 0, len)
+                    remaining -= len
+                }
+            }
+        }
+    }
+
+    /**
+     * 创建摘要计算，续传时恢复上次记录的中间状态
+     * @param key String 下载标识
+     * @param currentLength Long 已下载的长度
+     * @param headerValue String? 响应头 [headerName] 的值
+     * @param filePath String 保存的完整路径
+     */
+    internal fun createVerifier(key: String, currentLength: Long, headerValue: String?, filePath: String): Verifier {
+        val digest = createDigest()
+        val savedExpected = DownLoadJournal.getString(expectedKey(key), null)
+        val expectedValue = expected ?: if (currentLength == 0L || savedExpected == null) {
+            headerValue?.also { DownLoadJournal.putString(expectedKey(key), it) }
+        } else {
+            savedExpected
+        }
+        val verifier = Verifier(key, digest, expectedValue)
+        if (currentLength > 0) {
+            val state = DownLoadJournal.getBytes(stateKey(key))
+            if (state == null || !digest.restoreState(state) || digest.byteCount != currentLength) {
+                //中间状态与断点不一致，重新计算已下载的部分
+                "key $key 摘要状态与断点不一致 重新计算".logi()
+                verifier.hashFile(filePath, currentLength)
+            }
+        }
+        return verifier
+    }
+
+    /**
+     * 创建摘要计算，不记录中间状态（批量下载的小文件不续传）
+     */
+    internal fun createDigest(): ResumableDigest {
+        return ResumableDigest.create(algorithm)
+            ?: throw IllegalArgumentException("unsupported checksum algorithm $algorithm")
+    }
+
+    /**
+     * 校验摘要
+     * @param actual String 实际的摘要（小写 hex）
+     * @param expectedValue String? 期望的摘要，为空时不校验
+     * @return DownLoadException.ChecksumMismatch? 校验通过返回 null
+     */
+    internal fun check(actual: String, expectedValue: String? = expected): DownLoadException.ChecksumMismatch? {
+        if (expectedValue.isNullOrEmpty() || normalize(expectedValue) == actual) {
+            return null
+        }
+        return DownLoadException.ChecksumMismatch(algorithm, expectedValue, actual)
+    }
+
+    companion object {
+        const val MD5 = "MD5"
+        const val SHA256 = "SHA-256"
+
+        fun md5(expected: String) = DownLoadChecksum(MD5, expected)
+
+        fun sha256(expected: String) = DownLoadChecksum(SHA256, expected)
+
+        fun fromHeader(headerName: String, algorithm: String = SHA256) =
+            DownLoadChecksum(algorithm, headerName = headerName)
+
+        //key -> 本次下载校验通过的 SHA-256，下载结束（DownLoadPool.remove）时清除
+        private val verifiedMap = ConcurrentHashMap<String, String>()
+
+        /**
+         * 本次下载边下载边计算出的 SHA-256，需要在成功回调中读取
+         * @return String? 没有计算 SHA-256 时返回 null
+         */
+        internal fun verifiedSha256(key: String): String? {
+            return verifiedMap[key]
+        }
+
+        internal fun isSha256(algorithm: String): Boolean {
+            return algorithm.uppercase().replace("-", "") == "SHA256"
+        }
+
+        /**
+         * 清除记录的校验状态
+         */
+        internal fun clear(key: String) {
+            verifiedMap.remove(key)
+            DownLoadJournal.remove(stateKey(key))
+            DownLoadJournal.remove(expectedKey(key))
+        }
+
+        /** 摘要中间状态 */
+        internal fun stateKey(key: String) = "${key}_digest_state"
+
+        /** 期望的摘要（从响应头读取时记录下来，续传的响应可能不再携带） */
+        internal fun expectedKey(key: String) = "${key}_digest_expected"
+
+        /**
+         * 统一转换为小写 hex，兼容 Content-MD5 这类 base64 格式
+         */
+        internal fun normalize(value: String): String {
+            val trimmed = value.trim()
+            if (trimmed.matches(Regex("[0-9a-fA-F]+")) && trimmed.length % 2 == 0) {
+                return trimmed.lowercase()
+            }
+            return try {
+                Base64.decode(trimmed, Base64.DEFAULT).joinToString("") { "%02x".format(it) }
+            } catch (e: IllegalArgumentException) {
+                trimmed.lowercase()
+            }
+        }
+    }
+}
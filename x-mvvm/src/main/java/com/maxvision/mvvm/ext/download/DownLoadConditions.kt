@@ -0,0 +1,76 @@
+package com.maxvision.mvvm.ext.download
+
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import android.net.ConnectivityManager
+import android.net.NetworkCapabilities
+import android.os.BatteryManager
+import android.os.PowerManager
+import com.maxvision.mvvm.base.BaseApplication.Companion.app
+import com.maxvision.mvvm.ext.util.logi
+import com.maxvision.mvvm.network.manager.NetworkStateManager
+import kotlinx.coroutines.channels.awaitClose
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.callbackFlow
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.onEach
+import kotlinx.coroutines.launch
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 设备状态（网络是否计流量、是否充电、是否灭屏），用于判断 [DownLoadConstraints]
+ * 网络变化来自 [NetworkStateManager] 的 NetworkCallback，充电和亮灭屏来自广播；
+ * 只在有下载等待条件或者监听条件变化时注册广播，不再收集时注销，不轮询
+ */
+internal object DownLoadConditions {
+
+    /**
+     * @param unmetered Boolean 当前网络不计流量
+     * @param charging Boolean 正在充电
+     * @param idle Boolean 灭屏（用户没有在使用设备），不是系统 Doze 的 idle
+     */
+    data class State(val unmetered: Boolean, val charging: Boolean, val idle: Boolean)
+
+    /**
+     * 状态变化，收集时先发送一次当前状态
+     * 收集期间注册充电、亮灭屏广播，取消收集时注销
+     */
+    val changes: Flow<State> = callbackFlow {
+        val receiver = object : BroadcastReceiver() {
+            override fun onReceive(context: Context, intent: Intent) {
+                trySend(current())
+            }
+        }
+        val filter = IntentFilter().apply {
+            addAction(Intent.ACTION_POWER_CONNECTED)
+            addAction(Intent.ACTION_POWER_DISCONNECTED)
+            addAction(Intent.ACTION_SCREEN_ON)
+            addAction(Intent.ACTION_SCREEN_OFF)
+        }
+        app.registerReceiver(receiver, filter)
+        //StateFlow 收集时会先发送当前值，同时发送了第一次的状态
+        launch {
+            NetworkStateManager.instance.unmeteredFlow.collect { trySend(current()) }
+        }
+        awaitClose { app.unregisterReceiver(receiver) }
+    }.distinctUntilChanged().onEach { "download conditions $it".logi() }
+
+    /**
+     * 当前设备状态，直接查询系统
+     */
+    fun current(): State {
+        val connectivityManager = app.getSystemService(Context.CONNECTIVITY_SERVICE) as ConnectivityManager
+        val powerManager = app.getSystemService(Context.POWER_SERVICE) as PowerManager
+        val capabilities = connectivityManager.getNetworkCapabilities(connectivityManager.activeNetwork)
+        //电量广播是粘性的，传入空的接收器直接读取最后一次的值
+        val battery = app.registerReceiver(null, IntentFilter(Intent.ACTION_BATTERY_CHANGED))
+        return State(
+            unmetered = capabilities?.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED) == true,
+            charging = (battery?.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) ?: 0) != 0,
+            idle = !powerManager.isInteractive
+        )
+    }
+}
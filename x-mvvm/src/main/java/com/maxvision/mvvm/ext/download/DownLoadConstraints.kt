@@ -0,0 +1,46 @@
+package com.maxvision.mvvm.ext.download
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 下载的运行条件，条件不满足时等待，下载中条件变化时自动暂停，满足后从断点继续
+ * 条件来自网络回调和充电、亮屏广播，见 [DownLoadConditions]，不需要轮询
+ *
+ * 使用示例：
+ * ```kotlin
+ * // 只在 Wi-Fi 且充电时下载离线资源包
+ * downLoadManager.downLoad(tag, url, savePath, saveName, loadListener = listener,
+ *     priority = DownLoadPriority.PREFETCH,
+ *     constraints = DownLoadConstraints(requireUnmetered = true, requireCharging = true))
+ * ```
+ * @param requireUnmetered Boolean 只在不计流量的网络（一般是 Wi-Fi）下载
+ * @param requireCharging Boolean 只在充电时下载
+ * @param requireIdle Boolean 只在用户不使用设备时下载。这里的"空闲"指灭屏（PowerManager.isInteractive 为 false），
+ * 不是系统 Doze 的 idle 模式；灭屏一段时间后系统进入 Doze 会限制网络，长时间的下载需要配合前台服务或 WorkManager
+ */
+data class DownLoadConstraints(
+    val requireUnmetered: Boolean = false,
+    val requireCharging: Boolean = false,
+    val requireIdle: Boolean = false
+) {
+
+    /**
+     * 没有任何条件
+     */
+    val isNone: Boolean
+        get() = !requireUnmetered && !requireCharging && !requireIdle
+
+    /**
+     * 当前状态是否满足条件
+     */
+    internal fun isSatisfiedBy(state: DownLoadConditions.State): Boolean {
+        return (!requireUnmetered || state.unmetered) &&
+                (!requireCharging || state.charging) &&
+                (!requireIdle || state.idle)
+    }
+
+    companion object {
+        /** 没有条件 */
+        val NONE = DownLoadConstraints()
+    }
+}
@@ -0,0 +1,38 @@
+package com.maxvision.mvvm.ext.download
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 下载相关的错误类型，通过 [OnDownLoadListener.onDownLoadError] 回调
+ */
+sealed class DownLoadException(message: String) : Exception(message) {
+
+    /**
+     * 文件校验失败
+     * @param algorithm String 校验算法
+     * @param expected String 期望的摘要
+     * @param actual String 实际的摘要
+     */
+    class ChecksumMismatch(val algorithm: String, val expected: String, val actual: String) :
+        DownLoadException("$algorithm checksum mismatch, expected $expected but was $actual")
+
+    /**
+     * 存储空间不足，开始下载前检查
+     * @param path String 保存的路径
+     * @param required Long 需要的字节数（包含预留空间）
+     * @param available Long 可用的字节数
+     */
+    class InsufficientSpace(val path: String, val required: Long, val available: Long) :
+        DownLoadException("insufficient space in $path, required $required but only $available available")
+
+    /**
+     * 压缩包格式错误或者条目不安全（路径在解压目录之外），重新下载也无法解决，不会重试
+     * @param reason String 错误原因
+     */
+    class InvalidArchive(val reason: String, cause: Throwable? = null) :
+        DownLoadException("invalid archive, $reason") {
+        init {
+            cause?.let { initCause(it) }
+        }
+    }
+}
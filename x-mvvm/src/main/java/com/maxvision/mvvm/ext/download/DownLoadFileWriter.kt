@@ -0,0 +1,208 @@
+package com.maxvision.mvvm.ext.download
+
+import java.io.Closeable
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.util.concurrent.ConcurrentLinkedQueue
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 下载文件写入，从指定位置顺序写入，文件长度随写入增长，支持总长度未知的下载
+ */
+internal abstract class DownLoadFileWriter(file: File, startPosition: Long) : Closeable {
+
+    companion object {
+
+        /**
+         * 创建写入器
+         * @param mode DownLoadWriteMode 写入方式
+         * @param file File 保存的文件
+         * @param startPosition Long 开始写入的位置
+         * @param bufferSize Int [DownLoadWriteMode.CHANNEL] 的缓冲区大小
+         * @param windowSize Int [DownLoadWriteMode.MAPPED_WINDOW] 的窗口大小
+         */
+        fun open(
+            mode: DownLoadWriteMode,
+            file: File,
+            startPosition: Long,
+            bufferSize: Int = FileTool.bufferSize,
+            windowSize: Int = FileTool.mapWindowSize
+        ): DownLoadFileWriter {
+            //不能写入其他路径共用的数据
+            FileTool.unlinkShared(file, keepContent = startPosition > 0)
+            return when (mode) {
+                DownLoadWriteMode.CHANNEL -> ChannelWriter(file, startPosition, bufferSize)
+                DownLoadWriteMode.MAPPED_WINDOW -> MappedWindowWriter(file, startPosition, windowSize)
+            }
+        }
+    }
+
+    protected val accessFile = RandomAccessFile(file, "rw")
+    protected val channel: FileChannel = accessFile.channel
+
+    /** 已经写入文件的位置，缓冲中的数据 flush 后才计入 */
+    var position: Long = startPosition
+        protected set
+
+    abstract fun write(buffer: ByteArray, offset: Int, length: Int)
+
+    /**
+     * 把缓冲中的数据写入文件，记录断点前必须调用
+     */
+    abstract fun flush()
+
+    /**
+     * 传输完成，把文件截断到实际写入的长度，去掉之前残留的数据
+     * 暂停、出错、被抢占时只调用 [close]，保留预分配的长度，继续下载时不用重新分配
+     */
+    open fun complete() {
+        flush()
+        if (channel.size() > position) {
+            channel.truncate(position)
+        }
+    }
+
+    override fun close() {
+        try {
+            flush()
+        } finally {
+            channel.close()
+            accessFile.close()
+        }
+    }
+
+    /**
+     * 直接内存缓冲池，避免每个下载都重新分配
+     */
+    private object BufferPool {
+        private val pool = ConcurrentLinkedQueue<ByteBuffer>()
+
+        fun obtain(size: Int): ByteBuffer {
+            while (true) {
+                val buffer = pool.poll() ?: return ByteBuffer.allocateDirect(size)
+                if (buffer.capacity() == size) {
+                    buffer.clear()
+                    return buffer
+                }
+            }
+        }
+
+        fun recycle(buffer: ByteBuffer) {
+            if (pool.size < 8) {
+                pool.offer(buffer)
+            }
+        }
+    }
+
+    private class ChannelWriter(file: File, startPosition: Long, bufferSize: Int) : DownLoadFileWriter(file, startPosition) {
+
+        private var buffer: ByteBuffer? = BufferPool.obtain(bufferSize)
+
+        override fun write(buffer: ByteArray, offset: Int, length: Int) {
+            val target = this.buffer ?: throw IllegalStateException("writer closed")
+            var start = offset
+            var remaining = length
+            while (remaining > 0) {
+                val count = minOf(remaining, target.remaining())
+                target.put(buffer, start, count)
+                start += count
+                remaining -= count
+                if (!target.hasRemaining()) {
+                    flush()
+                }
+            }
+        }
+
+        override fun flush() {
+            val target = buffer ?: return
+            target.flip()
+            while (target.hasRemaining()) {
+                position += channel.write(target, position)
+            }
+            target.clear()
+        }
+
+        override fun close() {
+            try {
+                super.close()
+            } finally {
+                buffer?.let { BufferPool.recycle(it) }
+                buffer = null
+            }
+        }
+    }
+
+    /**
+     * 同时只引用一个窗口，旧窗口不再引用后由 GC 回收时解除映射，地址空间的占用受窗口大小限制
+     * 系统不允许通过反射主动解除映射（hidden API 限制），所以不做这一步
+     */
+    private class MappedWindowWriter(file: File, startPosition: Long, private val windowSize: Int) :
+        DownLoadFileWriter(file, startPosition) {
+
+        //打开时的文件长度，包括预分配的部分，关闭时只截掉窗口超出它的部分
+        private val openLength = channel.size()
+
+        private var window: MappedByteBuffer? = null
+        private var windowStart = startPosition
+
+        override fun write(buffer: ByteArray, offset: Int, length: Int) {
+            var start = offset
+            var remaining = length
+            while (remaining > 0) {
+                val target = window?.takeIf { it.hasRemaining() } ?: nextWindow()
+                val count = minOf(remaining, target.remaining())
+                target.put(buffer, start, count)
+                start += count
+                remaining -= count
+                position += count
+            }
+        }
+
+        /**
+         * 映射下一个窗口，超出文件长度时文件会自动增长
+         * 映射前写回上一个窗口并不再引用它
+         */
+        private fun nextWindow(): MappedByteBuffer {
+            release()
+            windowStart = position
+            return channel.map(FileChannel.MapMode.READ_WRITE, windowStart, windowSize.toLong()).also {
+                window = it
+            }
+        }
+
+        override fun flush() {
+            //映射的数据在页缓存中，进程被杀也不会丢失，不需要额外处理
+        }
+
+        /**
+         * 写回当前窗口，之后不再引用，由 GC 回收
+         */
+        private fun release() {
+            val current = window ?: return
+            window = null
+            current.force()
+        }
+
+        override fun complete() {
+            release()
+            super.complete()
+        }
+
+        override fun close() {
+            try {
+                release()
+                //最后一个窗口可能超出文件原来的长度和实际写入的长度，截掉多出的部分，预分配的长度保留
+                val length = maxOf(position, openLength)
+                if (channel.size() > length) {
+                    channel.truncate(length)
+                }
+            } finally {
+                super.close()
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.maxvision.mvvm.ext.download
+
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 下载记录文件（断点日志、持久化队列）的读写线程
+ * pause、cancel 一般在主线程调用，加载、压缩、整体重写和 fsync 都放到这个线程，调用方不等待磁盘；
+ * 单线程保证同一个文件的写入按顺序进行
+ */
+internal object DownLoadIo {
+
+    val executor: ExecutorService = Executors.newSingleThreadExecutor { runnable ->
+        Thread(runnable, "download-io").apply { isDaemon = true }
+    }
+}
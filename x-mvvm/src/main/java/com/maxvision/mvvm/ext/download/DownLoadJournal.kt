@@ -0,0 +1,249 @@
+package com.maxvision.mvvm.ext.download
+
+import android.os.SystemClock
+import com.maxvision.mvvm.base.BaseApplication.Companion.app
+import com.maxvision.mvvm.ext.util.loge
+import com.maxvision.mvvm.ext.util.logi
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.OutputStream
+import java.nio.ByteBuffer
+import java.util.concurrent.Future
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 下载断点日志（替代 SharedPreferences 记录断点）
+ *
+ * SharedPreferences 每次 apply 都会整体重写 xml，并在 onStop 时等待落盘，多任务下载时容易 ANR。
+ * 这里使用追加写的二进制日志：
+ * 1. 内存中保存最新值，读取不走磁盘
+ * 2. 写入只追加一条记录到缓冲区，按时间/字节预算批量 flush
+ * 3. 对象初始化时把重放日志、压缩（只保留最新的记录）提交到 [DownLoadIo] 线程，
+ *    调用方线程不读写文件，但加载完成之前的访问会等待加载完成，尽早访问（例如 Application 中 restore）可以提前加载
+ *
+ * 记录格式：[op:byte][key:UTF][size:int][value:bytes]，op 为 [OP_PUT] 或 [OP_REMOVE]（无 value）
+ */
+object DownLoadJournal {
+
+    private const val FILE_NAME = "download_journal.bin"
+
+    private const val OP_PUT: Int = 1
+    private const val OP_REMOVE: Int = 2
+
+    /** 缓冲区超过该字节数时 flush */
+    var flushBytes = 16 * 1024
+
+    /** 距离上次 flush 超过该时间(ms)时 flush */
+    var flushIntervalMs = 1000L
+
+    private val file: File = File(app.filesDir, FILE_NAME)
+    private val values = HashMap<String, ByteArray>()
+    private lateinit var output: DataOutputStream
+    private var pendingBytes = 0
+    private var lastFlushTime = 0L
+
+    //在 IO 线程加载和压缩，访问前等待；加载失败时保留已经读出的记录，不能让后续访问一直失败
+    private val loaded: Future<*> = DownLoadIo.executor.submit {
+        load()
+        output = try {
+            compact()
+        } catch (e: IOException) {
+            "download journal open error ${e.message}, records will not be saved".loge()
+            DataOutputStream(object : OutputStream() {
+                override fun write(b: Int) {}
+            })
+        }
+    }
+
+    @Synchronized
+    fun putLong(key: String, value: Long) {
+        awaitLoaded()
+        putBytes(key, ByteBuffer.allocate(8).putLong(value).array())
+    }
+
+    @Synchronized
+    fun getLong(key: String, defValue: Long): Long {
+        awaitLoaded()
+        val bytes = values[key] ?: return defValue
+        return if (bytes.size == 8) ByteBuffer.wrap(bytes).long else defValue
+    }
+
+    @Synchronized
+    fun putInt(key: String, value: Int) {
+        awaitLoaded()
+        putBytes(key, ByteBuffer.allocate(4).putInt(value).array())
+    }
+
+    @Synchronized
+    fun getInt(key: String, defValue: Int): Int {
+        awaitLoaded()
+        val bytes = values[key] ?: return defValue
+        return if (bytes.size == 4) ByteBuffer.wrap(bytes).int else defValue
+    }
+
+    @Synchronized
+    fun putString(key: String, value: String) {
+        awaitLoaded()
+        putBytes(key, value.toByteArray(Charsets.UTF_8))
+    }
+
+    @Synchronized
+    fun getString(key: String, defValue: String?): String? {
+        awaitLoaded()
+        val bytes = values[key] ?: return defValue
+        return String(bytes, Charsets.UTF_8)
+    }
+
+    @Synchronized
+    fun putBytes(key: String, value: ByteArray) {
+        awaitLoaded()
+        val old = values[key]
+        if (old != null && old.contentEquals(value)) {
+            return
+        }
+        values[key] = value
+        append(OP_PUT, key, value)
+    }
+
+    @Synchronized
+    fun getBytes(key: String): ByteArray? {
+        awaitLoaded()
+        return values[key]
+    }
+
+    @Synchronized
+    fun contains(key: String): Boolean {
+        awaitLoaded()
+        return values.containsKey(key)
+    }
+
+    @Synchronized
+    fun remove(key: String) {
+        awaitLoaded()
+        if (values.remove(key) != null) {
+            append(OP_REMOVE, key, null)
+        }
+    }
+
+    /**
+     * 记录从头开始下载并立即写入文件，在预分配、写入数据之前调用
+     * 预分配后文件已经是完整长度，进程在第一个断点之前被杀时，靠这条记录区分未完成的文件
+     */
+    @Synchronized
+    fun markStarted(key: String) {
+        putLong(key, 0L)
+        flush()
+    }
+
+    /**
+     * 立即把缓冲区写入文件（暂停、完成、出错时调用）
+     */
+    @Synchronized
+    fun flush() {
+        awaitLoaded()
+        try {
+            output.flush()
+        } catch (e: IOException) {
+            "download journal flush error ${e.message}".loge()
+        }
+        pendingBytes = 0
+        lastFlushTime = SystemClock.elapsedRealtime()
+    }
+
+    private fun awaitLoaded() {
+        loaded.get()
+    }
+
+    private fun append(op: Int, key: String, value: ByteArray?) {
+        //按实际写入的字节数计算，key 按 UTF-8 编码后的长度
+        val before = output.size()
+        try {
+            output.writeByte(op)
+            output.writeUTF(key)
+            if (value != null) {
+                output.writeInt(value.size)
+                output.write(value)
+            }
+            pendingBytes += output.size() - before
+        } catch (e: IOException) {
+            "download journal write error ${e.message}".loge()
+            return
+        }
+        if (pendingBytes >= flushBytes || SystemClock.elapsedRealtime() - lastFlushTime >= flushIntervalMs) {
+            flush()
+        }
+    }
+
+    /**
+     * 重放日志，遇到不完整或者损坏的记录时停止，保留之前的记录，压缩时丢弃之后的部分
+     */
+    private fun load() {
+        if (!file.exists()) {
+            return
+        }
+        try {
+            DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+                while (true) {
+                    val op = input.read()
+                    if (op == -1) break
+                    val key = input.readUTF()
+                    when (op) {
+                        OP_PUT -> {
+                            //长度损坏时不能按长度分配内存
+                            val size = input.readInt()
+                            if (size < 0 || size > input.available()) {
+                                throw IOException("bad record size $size")
+                            }
+                            val value = ByteArray(size)
+                            input.readFully(value)
+                            values[key] = value
+                        }
+                        OP_REMOVE -> values.remove(key)
+                        else -> throw IOException("unknown op $op")
+                    }
+                }
+            }
+        } catch (e: EOFException) {
+            "download journal truncated, keep ${values.size} records".logi()
+        } catch (e: Exception) {
+            "download journal corrupted ${e.message}, keep ${values.size} records".loge()
+        }
+    }
+
+    /**
+     * 压缩日志：把内存中的最新值重写到临时文件后替换
+     * @return DataOutputStream 后续追加写入的输出流
+     */
+    private fun compact(): DataOutputStream {
+        val temp = File(file.path + ".tmp")
+        try {
+            FileOutputStream(temp).use { fos ->
+                val out = DataOutputStream(BufferedOutputStream(fos))
+                values.forEach { (key, value) ->
+                    out.writeByte(OP_PUT)
+                    out.writeUTF(key)
+                    out.writeInt(value.size)
+                    out.write(value)
+                }
+                out.flush()
+                fos.fd.sync()
+            }
+            if (!temp.renameTo(file)) {
+                throw IOException("rename ${temp.path} failed")
+            }
+        } catch (e: IOException) {
+            "download journal compact error ${e.message}".loge()
+            temp.delete()
+        }
+        lastFlushTime = SystemClock.elapsedRealtime()
+        return DataOutputStream(BufferedOutputStream(FileOutputStream(file, true), flushBytes))
+    }
+}
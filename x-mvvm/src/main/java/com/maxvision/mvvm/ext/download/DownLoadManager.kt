@@ -1,18 +1,42 @@
 package com.maxvision.mvvm.ext.download
 
 import android.os.Looper
+import com.maxvision.mvvm.ext.util.loge
 import com.maxvision.mvvm.ext.util.logi
+import com.maxvision.mvvm.network.manager.NetworkStateManager
 import com.maxvision.mvvm.util.HttpsCerUtils
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.ensureActive
 import kotlinx.coroutines.isActive
+import kotlinx.coroutines.job
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.flow.collect
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.onEach
+import kotlinx.coroutines.flow.onSubscription
 import kotlinx.coroutines.withContext
+import okhttp3.Dispatcher
 import okhttp3.OkHttpClient
+import retrofit2.Response
 import retrofit2.Retrofit
 import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.TimeUnit
 import javax.inject.Inject
 import javax.inject.Singleton
+import kotlin.coroutines.coroutineContext
 
 
 /**
@@ -23,11 +47,17 @@ import javax.inject.Singleton
 @Singleton
 class DownLoadManager @Inject constructor(){
 
+    /** 下载共用的调度器，放开单 host 并发数以支持分段下载 */
+    private val dispatcher = Dispatcher().apply {
+        maxRequestsPerHost = SegmentDownLoader.MAX_SEGMENT_COUNT
+    }
+
     /** 忽略https模式 */
     private val retrofitBuilderHttps = Retrofit.Builder()
         .baseUrl("https://www.baidu.com")
         .client(
             HttpsCerUtils.trustAllCertificateClient.newBuilder()
+                .dispatcher(dispatcher)
                 .connectTimeout(10, TimeUnit.SECONDS)
                 .readTimeout(5, TimeUnit.SECONDS)
                 .writeTimeout(5, TimeUnit.SECONDS).build()
@@ -40,12 +70,30 @@ class DownLoadManager @Inject constructor(){
         .baseUrl("https://www.baidu.com")
         .client(
             OkHttpClient.Builder()
+                .dispatcher(dispatcher)
                 .connectTimeout(10, TimeUnit.SECONDS)
                 .readTimeout(5, TimeUnit.SECONDS)
                 .writeTimeout(5, TimeUnit.SECONDS).build()
         ).build()
 
 
+    //各个下载的最新状态
+    private val stateMap: ConcurrentHashMap<String, MutableStateFlow<DownloadResultState>> = ConcurrentHashMap()
+
+    /**
+     * 下载失败重试策略，[DownLoadRetryPolicy.NONE] 不重试
+     */
+    var retryPolicy = DownLoadRetryPolicy()
+
+    /** 下载服务，只创建一次代理 */
+    private val downLoadServiceHttps by lazy { retrofitBuilderHttps.create(DownLoadService::class.java) }
+
+    private val downLoadService by lazy { retrofitBuilder.create(DownLoadService::class.java) }
+
+    private fun getService(whetherHttps: Boolean): DownLoadService {
+        return if (whetherHttps) downLoadServiceHttps else downLoadService
+    }
+
     /**
      *开始下载
      * @param tag String 标识
@@ -55,6 +103,14 @@ class DownLoadManager @Inject constructor(){
      * @param reDownload Boolean 如果文件已存在是否需要重新下载 默认不需要重新下载
      * @param whetherHttps Boolean 默认不开启忽略https模式
      * @param loadListener OnDownLoadListener
+     * @param segmentCount Int 分段数，大于1时开启多连接分段下载，服务器不支持Range时自动回退单线程下载
+     * @param priority DownLoadPriority 优先级，超过最大同时下载数时排队等待，默认用户下载
+     * @param checksum DownLoadChecksum? 下载校验，边下载边计算摘要，校验失败回调 [DownLoadException.ChecksumMismatch]
+     * @param unzipPath String? 不为空时边下载边把 ZIP 解压到该目录，不保存压缩包
+     * @param useCache Boolean 使用 [DownLoadCache]：期望的 SHA-256 已缓存时不再下载，完成后加入缓存，解压模式不支持
+     * @param mirrors List<String> 其他镜像地址，同时请求使用最快的，出错或停顿时切换镜像继续，见 [DownLoadMirrors]
+     * @param constraints DownLoadConstraints 运行条件（不计流量的网络、充电、灭屏），不满足时等待，下载中不满足时自动暂停
+     * @param patch DownLoadPatch? 增量下载：下载补丁和本地旧文件合成，需要 [checksum] 的期望摘要，失败时回退完整下载
      */
     suspend fun downLoad(
         tag: String,
@@ -63,13 +119,277 @@ class DownLoadManager @Inject constructor(){
         saveName: String,
         reDownload: Boolean = false,
         whetherHttps: Boolean=false,
-        loadListener: OnDownLoadListener
+        loadListener: OnDownLoadListener,
+        segmentCount: Int = 1,
+        priority: DownLoadPriority = DownLoadPriority.USER,
+        checksum: DownLoadChecksum? = null,
+        unzipPath: String? = null,
+        useCache: Boolean = false,
+        mirrors: List<String> = emptyList(),
+        constraints: DownLoadConstraints = DownLoadConstraints.NONE,
+        patch: DownLoadPatch? = null
     ) {
-        withContext(Dispatchers.IO) {
-            doDownLoad(tag, url, savePath, saveName, reDownload,whetherHttps, loadListener, this)
+        val request = DownLoadRequest(tag, url, savePath, saveName, whetherHttps, segmentCount, priority, checksum, unzipPath, useCache, mirrors, constraints, patch)
+        //回调方式基于 downloadFlow，在主线程回调
+        downloadFlow(request, reDownload)
+            .collect { state ->
+                withContext(Dispatchers.Main) {
+                    state.dispatchTo(tag, loadListener)
+                }
+            }
+    }
+
+    /**
+     * Flow 方式下载（冷流，收集时开始下载，取消收集时暂停下载）
+     * 下载过程不会切换到主线程，进度按 [progressInterval] 采样，只有收集方决定在哪个线程处理
+     * 相同 url 同时下载时只传输一次，进度分发给所有收集方，完成后链接/复制到各自的保存路径
+     *
+     * 使用示例：
+     * ```kotlin
+     * viewModelScope.launch {
+     *     downLoadManager.downloadFlow("TAG", url, savePath, saveName).collect { state ->
+     *         when (state) {
+     *             is DownloadResultState.Progress -> _progress.value = state.progress
+     *             is DownloadResultState.Success -> ...
+     *             else -> {}
+     *         }
+     *     }
+     * }
+     * ```
+     * @param progressInterval Long 进度最小间隔(ms)，默认100ms
+     * @param unzipPath String? 不为空时边下载边把 ZIP 解压到该目录，不保存压缩包
+     * @param useCache Boolean 使用 [DownLoadCache]：期望的 SHA-256 已缓存时不再下载，完成后加入缓存，解压模式不支持
+     * @param mirrors List<String> 其他镜像地址，同时请求使用最快的，出错或停顿时切换镜像继续，见 [DownLoadMirrors]
+     * @param constraints DownLoadConstraints 运行条件（不计流量的网络、充电、灭屏），不满足时等待，下载中不满足时自动暂停
+     * @param patch DownLoadPatch? 增量下载：下载补丁和本地旧文件合成，需要 [checksum] 的期望摘要，失败时回退完整下载
+     * @return Flow<DownloadResultState>
+     */
+    fun downloadFlow(
+        tag: String,
+        url: String,
+        savePath: String,
+        saveName: String,
+        reDownload: Boolean = false,
+        whetherHttps: Boolean = false,
+        segmentCount: Int = 1,
+        priority: DownLoadPriority = DownLoadPriority.USER,
+        checksum: DownLoadChecksum? = null,
+        progressInterval: Long = 100,
+        unzipPath: String? = null,
+        useCache: Boolean = false,
+        mirrors: List<String> = emptyList(),
+        constraints: DownLoadConstraints = DownLoadConstraints.NONE,
+        patch: DownLoadPatch? = null
+    ): Flow<DownloadResultState> = downloadFlow(
+        DownLoadRequest(tag, url, savePath, saveName, whetherHttps, segmentCount, priority, checksum, unzipPath, useCache, mirrors, constraints, patch),
+        reDownload,
+        progressInterval
+    )
+
+    /**
+     * Flow 方式下载，参数同上
+     * @param request DownLoadRequest 下载请求
+     * @param reDownload Boolean 如果文件已存在是否需要重新下载 默认不需要重新下载
+     * @param progressInterval Long 进度最小间隔(ms)，默认100ms
+     */
+    fun downloadFlow(
+        request: DownLoadRequest,
+        reDownload: Boolean = false,
+        progressInterval: Long = 100
+    ): Flow<DownloadResultState> = channelFlow {
+        //连续的进度只保留最新的，收集得慢时不会无限堆积，其他状态不会丢失
+        val states = DownLoadStateBuffer()
+        launch { states.drainTo { send(it) } }
+        try {
+            produceStates(request, reDownload, progressInterval, states)
+        } finally {
+            states.close()
+        }
+    }.onEach { state ->
+        //记录最新状态，其他页面可以通过 observe 重新关联
+        val flow = stateMap.getOrPut(request.tag) { MutableStateFlow(state) }
+        flow.value = state
+        //结束后不再保留，已经关联的收集方仍然能收到最后的状态
+        if (state is DownloadResultState.Success || state is DownloadResultState.Error) {
+            stateMap.remove(request.tag, flow)
+        }
+    }
+
+    /**
+     * downloadFlow 的下载过程，状态写入 [states]
+     */
+    private suspend fun produceStates(
+        request: DownLoadRequest,
+        reDownload: Boolean,
+        progressInterval: Long,
+        states: DownLoadStateBuffer
+    ): Unit = coroutineScope {
+        val tag = request.tag
+        val source = DownLoadSingleFlight.Source.of(request)
+        val checksum = request.checksum
+        val filePath = "${request.savePath}/${request.saveName}"
+        //解压模式保存的是目录，不参与相同地址去重
+        val shared = request.unzipPath == null
+        //已知 SHA-256 时可以直接从缓存中查找
+        val cacheHash = if (request.useCache && shared) {
+            checksum?.takeIf { DownLoadChecksum.isSha256(it.algorithm) }?.expected
+        } else {
+            null
+        }
+        if (cacheHash != null && !reDownload && DownLoadPool.getScopeFromKey(tag)?.isActive != true) {
+            val hit = withContext(Dispatchers.IO) {
+                DownLoadCache.linkTo(cacheHash, File(filePath))
+            }
+            if (hit) {
+                "key $tag 命中下载缓存".logi()
+                DownLoadQueue.remove(tag)
+                states.offer(DownloadResultState.onSuccess(filePath, File(filePath).length()))
+                return@coroutineScope
+            }
+        }
+        //本次运行中已经下载过相同来源，直接链接/复制
+        val completed = if (reDownload || !shared) null else DownLoadSingleFlight.completedFile(source, checksum)
+        if (completed != null && completed.path != File(filePath).path && DownLoadPool.getScopeFromKey(tag)?.isActive != true) {
+            withContext(Dispatchers.IO) {
+                FileTool.linkOrCopy(completed, File(filePath))
+            }
+            states.offer(DownloadResultState.onSuccess(filePath, completed.length()))
+            return@coroutineScope
+        }
+        while (true) {
+            val joined = if (shared) DownLoadSingleFlight.join(source, checksum, filePath) else null
+            val flight = joined?.flight
+            if (joined != null && !joined.leader) {
+                //相同来源正在下载，跟随它
+                val listener = FlowDownLoadListener(states::offer, progressInterval, this)
+                val taken = try {
+                    withContext(Dispatchers.IO) {
+                        follow(tag, filePath, joined.flight, listener, this)
+                    }
+                } catch (e: CancellationException) {
+                    if (!isActive) throw e
+                    true
+                }
+                //领头的下载被暂停或取消，重新加入，由其中一个接替下载
+                if (taken) return@coroutineScope else continue
+            }
+            var result: DownloadResultState? = null
+            val listener = FlowDownLoadListener({ state ->
+                if (state is DownloadResultState.Success || state is DownloadResultState.Error) {
+                    result = state
+                }
+                if (state is DownloadResultState.Success && request.useCache && shared) {
+                    //文件已经完整并通过校验，缓存失败不影响下载结果
+                    //优先使用下载时计算的摘要，成功回调在 DownLoadPool.remove 清除之前
+                    try {
+                        DownLoadCache.put(File(state.filePath), cacheHash ?: DownLoadChecksum.verifiedSha256(tag))
+                    } catch (e: Exception) {
+                        "key $tag 加入下载缓存失败 ${e.message}".loge()
+                    }
+                }
+                states.offer(state)
+                flight?.states?.tryEmit(state)
+            }, progressInterval, this)
+            try {
+                withContext(Dispatchers.IO) {
+                    doDownLoad(request, reDownload, listener, this)
+                }
+            } catch (e: CancellationException) {
+                //收集方取消时继续抛出，暂停、取消、完成时下载作用域被取消，正常结束
+                if (!isActive) throw e
+            } finally {
+                flight?.let { DownLoadSingleFlight.finish(it, result) }
+            }
+            return@coroutineScope
         }
     }
 
+    /**
+     * 获取下载的最新状态，用于页面重建或进程恢复后重新关联
+     * @param tag String 标识
+     * @return StateFlow<DownloadResultState>? 没有进行中或暂停的下载（没有下载过、已经成功、失败或取消）时返回 null
+     */
+    fun observe(tag: String): StateFlow<DownloadResultState>? {
+        return stateMap[tag]?.asStateFlow()
+    }
+
+    /**
+     * 以回调方式重新关联下载，在主线程回调，会先收到一次最新状态
+     * @param tag String 标识
+     * @param scope CoroutineScope 回调所在的作用域，取消后停止回调
+     * @param loadListener OnDownLoadListener
+     * @return Job? 没有进行中或暂停的下载时返回 null
+     */
+    fun attach(tag: String, scope: CoroutineScope, loadListener: OnDownLoadListener): Job? {
+        val flow = observe(tag) ?: return null
+        return scope.launch(Dispatchers.Main) {
+            flow.collect { it.dispatchTo(tag, loadListener) }
+        }
+    }
+
+    /**
+     * 恢复上次进程中未完成的下载，在 Application 启动时调用
+     *
+     * 使用示例：
+     * ```kotlin
+     * downLoadManager.restore(applicationScope)
+     * // 页面中重新关联
+     * downLoadManager.observe("TAG")?.collect { state -> ... }
+     * ```
+     * @param scope CoroutineScope 下载所在的作用域
+     * @param includePaused Boolean 是否同时恢复被用户暂停的下载，默认不恢复
+     * @return List<String> 恢复的下载标识
+     */
+    fun restore(scope: CoroutineScope, includePaused: Boolean = false): List<String> {
+        val requests = DownLoadQueue.all().filter { request ->
+            (includePaused || !request.paused) && DownLoadPool.getScopeFromKey(request.tag)?.isActive != true
+        }
+        requests.forEach { request ->
+            "恢复下载 ${request.tag}".logi()
+            stateMap.getOrPut(request.tag) { MutableStateFlow(DownloadResultState.onPending()) }
+            scope.launch {
+                downloadFlow(request.copy(paused = false)).collect()
+            }
+        }
+        return requests.map { it.tag }
+    }
+
+    /**
+     * 持久化队列中未完成的下载（包括被用户暂停的）
+     */
+    fun getPendingRequests(): List<DownLoadRequest> {
+        return DownLoadQueue.all()
+    }
+
+    /**
+     * 批量下载大量小文件（缩略图、配置文件等）
+     * 清单中的项共用一个连接池、固定数量并发，不进入下载池也不记录断点；
+     * 本地已存在且大小、摘要一致的项直接跳过，单项失败不影响其他项
+     *
+     * 使用示例：
+     * ```kotlin
+     * val result = downLoadManager.downLoadBatch(manifest, parallelism = 8) { progress ->
+     *     _batchProgress.postValue(progress.progress)
+     * }
+     * result.failures.forEach { "${it.item.url} ${it.throwable.message}".loge() }
+     * ```
+     * @param manifest List<DownLoadManifestItem> 下载清单
+     * @param whetherHttps Boolean 默认不开启忽略https模式
+     * @param parallelism Int 同时下载的数量，默认 [SegmentDownLoader.MAX_SEGMENT_COUNT]
+     * @param progressInterval Long 进度最小间隔(ms)，默认100ms
+     * @param onProgress Function1 整体进度，在下载线程回调
+     * @return DownLoadBatchResult 成功、跳过和失败的项
+     */
+    suspend fun downLoadBatch(
+        manifest: List<DownLoadManifestItem>,
+        whetherHttps: Boolean = false,
+        parallelism: Int = SegmentDownLoader.MAX_SEGMENT_COUNT,
+        progressInterval: Long = 100,
+        onProgress: (DownLoadBatchProgress) -> Unit = {}
+    ): DownLoadBatchResult = withContext(Dispatchers.IO) {
+        BatchDownLoader.downLoad(getService(whetherHttps), manifest, parallelism, progressInterval, onProgress)
+    }
+
     /**
      * 取消下载
      * @param key String 取消的标识
@@ -78,11 +398,14 @@ class DownLoadManager @Inject constructor(){
         val path = DownLoadPool.getPathFromKey(key)
         if (path != null) {
             val file = File(path)
-            if (file.exists()) {
+            if (file.isFile) {
                 file.delete()
             }
+            //边下载边解压：未完成的内容都在暂存目录，解压目录在校验通过前不会写入
+            ZipStreamExtractor.stagingDir(file).deleteRecursively()
         }
         DownLoadPool.remove(key)
+        stateMap.remove(key)
     }
 
     /**
@@ -90,6 +413,7 @@ class DownLoadManager @Inject constructor(){
      * @param key String 暂停的标识
      */
     fun pause(key: String) {
+        DownLoadQueue.setPaused(key, true)
         val listener = DownLoadPool.getListenerFromKey(key)
         listener?.onDownLoadPause(key)
         DownLoadPool.pause(key)
@@ -115,25 +439,20 @@ class DownLoadManager @Inject constructor(){
 
     /**
      *下载
-     * @param tag String 标识
-     * @param url String  下载的url
-     * @param savePath String 保存的路径
-     * @param saveName String 保存的名字
+     * @param request DownLoadRequest 下载请求
      * @param reDownload Boolean 如果文件已存在是否需要重新下载 默认不需要重新下载
-     * @param whetherHttps Boolean 是否是https模式
      * @param loadListener OnDownLoadListener
      * @param coroutineScope CoroutineScope 上下文
      */
     private suspend fun doDownLoad(
-        tag: String,
-        url: String,
-        savePath: String,
-        saveName: String,
+        request: DownLoadRequest,
         reDownload: Boolean,
-        whetherHttps : Boolean,
         loadListener: OnDownLoadListener,
         coroutineScope: CoroutineScope
     ) {
+        val tag = request.tag
+        val savePath = request.savePath
+        val saveName = request.saveName
         //判断是否已经在队列中
         val scope = DownLoadPool.getScopeFromKey(tag)
         if (scope != null && scope.isActive) {
@@ -144,78 +463,405 @@ class DownLoadManager @Inject constructor(){
             DownLoadPool.removeExitSp(tag)
         }
 
-        if (saveName.isEmpty()) {
-            withContext(Dispatchers.Main) {
-                loadListener.onDownLoadError(tag, Throwable("save name is Empty"))
-            }
+        if (saveName.isEmpty() && request.unzipPath == null) {
+            loadListener.onDownLoadError(tag, Throwable("save name is Empty"))
             return
         }
 
         if (Looper.getMainLooper().thread == Thread.currentThread()) {
-            withContext(Dispatchers.Main) {
-                loadListener.onDownLoadError(tag, Throwable("current thread is in main thread"))
-            }
+            loadListener.onDownLoadError(tag, Throwable("current thread is in main thread"))
             return
         }
 
         val file = File("$savePath/$saveName")
-        val currentLength = if (!file.exists()) {
-            0L
-        } else {
-            ShareDownLoadUtil.getLong(tag, 0)
-        }
-        if (file.exists() && currentLength == 0L && !reDownload) {
+        //原地增量更新时旧文件就在保存路径上，不能当作已经下载完成
+        val inPlacePatch = request.patch?.let { File(it.basePath).path == file.path } == true
+        //有断点记录或者还在持久化队列中的是未完成的文件，例如预分配之后、第一个断点之前进程被杀
+        val unfinished = DownLoadJournal.contains(tag) || DownLoadQueue.get(tag) != null
+        if (request.unzipPath == null && !inPlacePatch && file.exists() && getCurrentLength(tag, file) == 0L && !unfinished && !reDownload) {
             //文件已存在了
+            DownLoadQueue.remove(tag)
             loadListener.onDownLoadSuccess(tag, file.path, file.length())
             return
         }
-        "startDownLoad current $currentLength".logi()
 
         try {
+            //记录到持久化队列，进程被杀后可以恢复
+            DownLoadQueue.put(request.copy(paused = false))
             //添加到pool
             DownLoadPool.add(tag, coroutineScope)
-            DownLoadPool.add(tag, "$savePath/$saveName")
+            DownLoadPool.add(tag, request.unzipPath ?: "$savePath/$saveName")
             DownLoadPool.add(tag, loadListener)
 
-            withContext(Dispatchers.Main) {
-                loadListener.onDownLoadPrepare(key = tag)
+            loadListener.onDownLoadPrepare(key = tag)
+            val sequence = DownLoadPool.nextSequence()
+            var attempt = 0
+            var lastLength = getCurrentLength(tag, file)
+            while (true) {
+                //断网时等待网络恢复
+                awaitNetwork(tag)
+                //等待运行条件满足
+                awaitConstraints(tag, request.constraints)
+                //排队等待下载位置
+                DownLoadPool.acquire(tag, request.priority, sequence)
+                val preempted = try {
+                    runPreemptible(tag, request.constraints) {
+                        transfer(request, loadListener)
+                    }
+                } catch (e: IOException) {
+                    //暂停、取消时连接被关闭也会抛出 IOException
+                    coroutineContext.ensureActive()
+                    DownLoadJournal.flush()
+                    if (e is ConstraintsLostException) {
+                        //条件不满足，不计入重试次数，下一轮等待条件满足后从断点继续
+                        "key $tag 运行条件不满足 暂停下载".logi()
+                        continue
+                    }
+                    val length = getCurrentLength(tag, file)
+                    //有下载进度时重新计数
+                    if (length > lastLength) attempt = 0
+                    lastLength = length
+                    if (!isNetworkAvailable()) {
+                        //断网不计入重试次数，下一轮等待网络恢复
+                        continue
+                    }
+                    if (DownLoadMirrors.failover(tag, request.urls)) {
+                        //还有其他镜像，立即切换，不计入重试次数
+                        "key $tag 下载出错 ${e.message} 切换镜像".logi()
+                        DownLoadTelemetry.recorder(tag)?.onRetry()
+                        continue
+                    }
+                    attempt++
+                    if (attempt > retryPolicy.maxRetries) throw e
+                    val delayMs = retryPolicy.delayFor(attempt)
+                    "key $tag 下载出错 ${e.message} ${delayMs}ms 后第 $attempt 次重试".logi()
+                    DownLoadTelemetry.recorder(tag)?.onRetry()
+                    parked(tag) { delay(delayMs) }
+                    continue
+                }
+                if (!preempted) break
+                "key $tag 被抢占 重新排队".logi()
+                DownLoadTelemetry.recorder(tag)?.onRetry()
+            }
+        } catch (e: CancellationException) {
+            //暂停、取消或者已经完成
+            throw e
+        } catch (throwable: Throwable) {
+            loadListener.onDownLoadError(key = tag, throwable = throwable)
+            DownLoadPool.remove(tag)
+        }
+    }
+
+    /**
+     * 跟随相同地址的下载：转发进度，完成后链接/复制到自己的保存路径
+     * 同样记录在 [DownLoadPool] 中，可以单独暂停、取消
+     * @return Boolean 是否已经结束，false 表示领头的下载被暂停或取消，需要重新加入
+     */
+    private suspend fun follow(
+        tag: String,
+        filePath: String,
+        flight: DownLoadSingleFlight.Flight,
+        loadListener: OnDownLoadListener,
+        coroutineScope: CoroutineScope
+    ): Boolean {
+        val scope = DownLoadPool.getScopeFromKey(tag)
+        if (scope != null && scope.isActive) {
+            "已经在队列中".logi()
+            return true
+        }
+        DownLoadPool.add(tag, coroutineScope)
+        DownLoadPool.add(tag, filePath)
+        DownLoadPool.add(tag, loadListener)
+        loadListener.onDownLoadPrepare(key = tag)
+        "key $tag 跟随 ${flight.url} 的下载".logi()
+        val result = coroutineScope {
+            val progressJob = launch {
+                flight.states.collect { state ->
+                    if (state is DownloadResultState.Progress) state.dispatchTo(tag, loadListener)
+                }
             }
-            val response = if (whetherHttps) {
-                retrofitBuilderHttps.create(DownLoadService::class.java)
-                    .downloadFile("bytes=$currentLength-", url)
-            } else {
-                retrofitBuilder.create(DownLoadService::class.java)
-                    .downloadFile("bytes=$currentLength-", url)
+            flight.result.await().also { progressJob.cancel() }
+        }
+        when (result) {
+            null -> {
+                DownLoadPool.removeExitSp(tag)
+                return false
             }
-//            val response = retrofitBuilder.create(DownLoadService::class.java)
-//                .downloadFile("bytes=$currentLength-", url)
-            val responseBody = response.body()
-            if (responseBody == null) {
-                "responseBody is null".logi()
-                withContext(Dispatchers.Main) {
-                    loadListener.onDownLoadError(
-                        key = tag,
-                        throwable = Throwable("responseBody is null please check download url")
-                    )
+            is DownloadResultState.Success -> {
+                try {
+                    if (File(result.filePath).path != File(filePath).path) {
+                        FileTool.linkOrCopy(File(result.filePath), File(filePath))
+                    }
+                    loadListener.onDownLoadSuccess(tag, filePath, result.totalBytes)
+                } catch (throwable: Throwable) {
+                    loadListener.onDownLoadError(tag, throwable)
                 }
-                DownLoadPool.remove(tag)
-                return
             }
-            FileTool.downToFile(
+            else -> result.dispatchTo(tag, loadListener)
+        }
+        DownLoadPool.remove(tag)
+        return true
+    }
+
+    /**
+     * 在可被抢占的子任务中执行下载，结束后释放下载位置
+     * @return Boolean 是否被抢占，被抢占时需要重新排队
+     */
+    private suspend fun runPreemptible(tag: String, constraints: DownLoadConstraints, block: suspend () -> Unit): Boolean {
+        try {
+            coroutineScope {
+                DownLoadPool.attach(tag, coroutineContext.job)
+                //断网时立即中断，不必等待读取超时
+                val watcher = launch {
+                    NetworkStateManager.instance.networkStateFlow.first { !it.isSuccess }
+                    //协程取消打断不了阻塞中的读取，取消连接让读取立即失败
+                    cancelRunningCalls()
+                    throw NetworkLostException()
+                }
+                //运行条件变化时中断，记录断点后等待
+                val constraintsWatcher = if (constraints.isNone) null else launch {
+                    DownLoadConditions.changes.first { !constraints.isSatisfiedBy(it) }
+                    throw ConstraintsLostException()
+                }
+                block()
+                watcher.cancel()
+                constraintsWatcher?.cancel()
+            }
+            return false
+        } catch (e: CancellationException) {
+            //被用户下载抢占，重新排队后从断点继续
+            if (!DownLoadPool.consumePreempted(tag)) throw e
+            coroutineContext.ensureActive()
+            return true
+        } finally {
+            DownLoadPool.release(tag)
+        }
+    }
+
+    /**
+     * 取消下载调度器上正在进行的请求，用于断网时
+     * 断网影响所有下载，不需要区分是哪个下载的请求，被取消的下载按断网处理，网络恢复后从断点继续
+     */
+    private fun cancelRunningCalls() {
+        dispatcher.runningCalls().forEach { it.cancel() }
+    }
+
+    /**
+     * 断网时挂起，直到网络恢复
+     */
+    private suspend fun awaitNetwork(tag: String) {
+        if (isNetworkAvailable()) {
+            return
+        }
+        "key $tag 网络断开 等待网络恢复".logi()
+        parked(tag) {
+            NetworkStateManager.instance.networkStateFlow
+                .onSubscription { NetworkStateManager.instance.getCurrentState()?.let { emit(it) } }
+                .first { it.isSuccess }
+        }
+        "key $tag 网络恢复 继续下载".logi()
+    }
+
+    /**
+     * 运行条件不满足时挂起，直到条件满足
+     */
+    private suspend fun awaitConstraints(tag: String, constraints: DownLoadConstraints) {
+        if (constraints.isNone || constraints.isSatisfiedBy(DownLoadConditions.current())) {
+            return
+        }
+        "key $tag 等待运行条件 $constraints".logi()
+        parked(tag) {
+            DownLoadConditions.changes.first { constraints.isSatisfiedBy(it) }
+        }
+        "key $tag 运行条件满足 继续下载".logi()
+    }
+
+    /**
+     * 没有注册网络监听时当作网络可用
+     */
+    private fun isNetworkAvailable(): Boolean {
+        return NetworkStateManager.instance.getCurrentState()?.isSuccess != false
+    }
+
+    /**
+     * 断网或等待重试期间标记在 [DownLoadPool.QueueState.parked] 中
+     */
+    private suspend fun parked(tag: String, block: suspend () -> Unit) {
+        DownLoadPool.park(tag)
+        try {
+            block()
+        } finally {
+            DownLoadPool.unpark(tag)
+        }
+    }
+
+    /**
+     * 服务器临时错误时抛出 IOException 进行重试
+     */
+    private fun throwIfRetryable(response: Response<*>) {
+        val code = response.code()
+        if (code >= 500 || code == 408 || code == 429) {
+            response.errorBody()?.close()
+            throw IOException("server error, code $code")
+        }
+    }
+
+    /**
+     * 获取已下载的长度
+     * @param tag String 标识
+     * @param file File 保存的文件
+     * @return Long
+     */
+    private fun getCurrentLength(tag: String, file: File): Long {
+        return if (!file.exists()) {
+            0L
+        } else {
+            //兼容旧版本记录在 SharedPreferences 中的断点
+            DownLoadJournal.getLong(tag, ShareDownLoadUtil.getLong(tag, 0))
+        }
+    }
+
+    /**
+     * 丢弃已下载的部分，从头下载
+     */
+    private fun restart(tag: String, file: File) {
+        DownLoadTelemetry.recorder(tag)?.onRestart()
+        DownLoadJournal.remove(tag)
+        ShareDownLoadUtil.remove(tag)
+        DownLoadChecksum.clear(tag)
+        SegmentDownLoader.clearSegments(tag)
+        //链接到其他路径的文件不能截断，直接删除
+        FileTool.unlinkShared(file, keepContent = false)
+        if (file.exists()) {
+            RandomAccessFile(file, "rw").use { it.setLength(0) }
+        }
+    }
+
+    /**
+     * 传输文件，从已下载的位置继续
+     */
+    private suspend fun transfer(request: DownLoadRequest, loadListener: OnDownLoadListener) {
+        val (tag, _, savePath, saveName, whetherHttps, segmentCount) = request
+        //加入下载缓存需要 SHA-256，没有指定校验时边下载边计算，完成后不用再读取一遍文件
+        val checksum = request.checksum
+            ?: if (request.useCache && request.unzipPath == null) DownLoadChecksum(DownLoadChecksum.SHA256) else null
+        val currentLength = getCurrentLength(tag, File("$savePath/$saveName"))
+        "startDownLoad current $currentLength".logi()
+        DownLoadTelemetry.begin(tag, currentLength)
+        val service = getService(whetherHttps)
+        val urls = request.urls
+        //各个镜像的 ETag / Last-Modified 不同，只按总长度判断远程文件是否变化
+        val strict = urls.size == 1
+        if (request.unzipPath != null) {
+            //流式解压，每次从头读取数据流
+            val (_, response) = DownLoadMirrors.race(tag, urls) { service.downloadFile("bytes=0-", it) }
+            throwIfRetryable(response)
+            val responseBody = response.body()
+                ?: throw Throwable("responseBody is null please check download url")
+            ZipStreamExtractor.extract(
                 tag,
-                savePath,
-                saveName,
-                currentLength,
                 responseBody,
-                loadListener
+                File(request.unzipPath),
+                loadListener,
+                checksum,
+                checksum?.headerName?.let { response.headers()[it] }
             )
-        } catch (throwable: Throwable) {
-            withContext(Dispatchers.Main) {
-                loadListener.onDownLoadError(key = tag, throwable = throwable)
+            return
+        }
+        val patch = request.patch
+        if (patch != null && currentLength == 0L && !SegmentDownLoader.hasSegments(tag)) {
+            //补丁合成失败时继续完整下载
+            if (DownLoadPatcher.download(tag, service, patch, File("$savePath/$saveName"), checksum, loadListener)) {
+                return
+            }
+        }
+        if (segmentCount > 1) {
+            val probe = SegmentDownLoader.probe(tag, service, urls)
+            if (probe != null && SegmentDownLoader.segmentCount(probe.totalLength, segmentCount) > 1) {
+                val filePath = FileTool.getFilePath(savePath, saveName)
+                    ?: throw Throwable("mkdirs file [$savePath]  error")
+                val meta = DownLoadValidator.fromHeaders(probe.headers)
+                //远程文件和开始下载时不一致，从头下载
+                val resume = currentLength > 0 && DownLoadValidator.get(tag)?.matches(meta, strict) ?: true
+                if (!resume) {
+                    DownLoadValidator.save(tag, meta)
+                }
+                SegmentDownLoader.downLoad(
+                    tag,
+                    service,
+                    probe.url,
+                    filePath,
+                    probe.totalLength,
+                    segmentCount,
+                    resume,
+                    if (strict) DownLoadValidator.get(tag)?.ifRange else null,
+                    loadListener,
+                    checksum,
+                    checksum?.headerName?.let { probe.headers[it] }
+                )
+                return
             }
+            "服务器不支持分段下载 回退到单线程下载".logi()
+        }
+        var resumeFrom = currentLength
+        if (SegmentDownLoader.hasSegments(tag)) {
+            //分段下载的进度不连续，不能按单线程断点继续
+            restart(tag, File("$savePath/$saveName"))
+            resumeFrom = 0
+        }
+        val ifRange = if (resumeFrom > 0 && strict) DownLoadValidator.get(tag)?.ifRange else null
+        var (mirror, response) = DownLoadMirrors.race(tag, urls) { service.downloadFile("bytes=$resumeFrom-", it, ifRange) }
+        throwIfRetryable(response)
+        if (resumeFrom > 0 && !DownLoadValidator.isResumed(tag, resumeFrom, response, strict)) {
+            //远程文件已变化或者服务器忽略了 Range，不能接着写，从头下载
+            "key $tag 无法从断点 $resumeFrom 继续 code ${response.code()} 从头下载".logi()
+            restart(tag, File("$savePath/$saveName"))
+            resumeFrom = 0
+            //只有 200 是完整的文件，校验不通过的 206 只是一部分数据，不能从头写入
+            if (response.code() != 200) {
+                response.body()?.close()
+                response.errorBody()?.close()
+                response = service.downloadFile("bytes=0-", mirror)
+                throwIfRetryable(response)
+                if (response.code() != 200 && !DownLoadValidator.isResumed(tag, 0, response, false)) {
+                    response.body()?.close()
+                    response.errorBody()?.close()
+                    throw IOException("unexpected response for full download, code ${response.code()}")
+                }
+            }
+        }
+        if (resumeFrom == 0L) {
+            DownLoadValidator.save(tag, DownLoadValidator.fromHeaders(response.headers()))
+        }
+        val responseBody = response.body()
+        if (responseBody == null) {
+            "responseBody is null".logi()
+            loadListener.onDownLoadError(
+                key = tag,
+                throwable = Throwable("responseBody is null please check download url")
+            )
             DownLoadPool.remove(tag)
+            return
         }
+        FileTool.transferToFile(
+            tag,
+            savePath,
+            saveName,
+            resumeFrom,
+            responseBody,
+            loadListener,
+            checksum,
+            checksum?.headerName?.let { response.headers()[it] }
+        )
     }
 }
 
+/**
+ * 下载过程中网络断开
+ */
+private class NetworkLostException : IOException("network lost")
 
+/**
+ * 下载过程中运行条件不再满足
+ */
+private class ConstraintsLostException : IOException("constraints not met")
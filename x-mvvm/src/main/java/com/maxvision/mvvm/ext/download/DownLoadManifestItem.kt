@@ -0,0 +1,17 @@
+package com.maxvision.mvvm.ext.download
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 批量下载清单中的一项
+ * @param url String 下载地址
+ * @param filePath String 保存的完整路径
+ * @param size Long 文件大小，未知时为 -1
+ * @param checksum DownLoadChecksum? 文件校验，本地文件大小、摘要都一致时跳过下载
+ */
+data class DownLoadManifestItem(
+    val url: String,
+    val filePath: String,
+    val size: Long = -1,
+    val checksum: DownLoadChecksum? = null
+)
@@ -0,0 +1,264 @@
+package com.maxvision.mvvm.ext.download
+
+import android.os.SystemClock
+import com.maxvision.mvvm.ext.util.logi
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.joinAll
+import kotlinx.coroutines.launch
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
+import retrofit2.Response
+import java.io.Closeable
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 多镜像下载的源选择
+ * 1. 开始（包括续传、重试）时同时向排名靠前的几个镜像发出请求，使用最先成功响应的，其余的取消
+ * 2. 下载中出错或停顿（读取超时）时把当前镜像标记为失败，立即切换到其他镜像按 Range 继续，不等待重试间隔
+ * 3. 按 host 记录每个镜像的首字节延迟、吞吐量和失败次数，用于之后的排名
+ *
+ * 不同 CDN 返回的 ETag / Last-Modified 通常不同，多镜像下载时续传只按文件总长度判断远程文件是否变化，
+ * 建议同时设置 [DownLoadChecksum] 校验下载结果
+ *
+ * 使用示例：
+ * ```kotlin
+ * downLoadManager.downLoad(tag, url, savePath, saveName, loadListener = listener, mirrors = listOf(url2, url3))
+ * // 查看各个镜像的统计
+ * DownLoadMirrors.stats().forEach { "${it.host} ${it.throughput}".logi() }
+ * ```
+ */
+object DownLoadMirrors {
+
+    /** 指数加权平均的权重 */
+    private const val EWMA_ALPHA = 0.3
+
+    /** 失败后在该时间(ms)内排到最后，不参与竞速 */
+    private const val FAILURE_COOLDOWN = 30_000L
+
+    /** 少于该字节数的传输不计入吞吐量，避免连接建立时间影响结果 */
+    private const val MIN_SAMPLE_BYTES = 256 * 1024L
+
+    /**
+     * 同时竞速的镜像数
+     */
+    var raceCount = 3
+
+    /**
+     * 单个镜像的统计
+     * @param host String 镜像 host
+     * @param latencyMs Long 发出请求到收到响应头的时间(ms)（指数加权平均），没有成功过时为 -1
+     * @param throughput Long 吞吐量（字节/秒，指数加权平均），没有记录时为 0
+     * @param successes Int 竞速中被选中的次数
+     * @param failures Int 请求失败、下载中出错或停顿的次数
+     * @param lastFailureTime Long 最后一次失败的时间（elapsedRealtime），没有失败过时为 0
+     */
+    data class Stats(
+        val host: String,
+        val latencyMs: Long = -1,
+        val throughput: Long = 0,
+        val successes: Int = 0,
+        val failures: Int = 0,
+        val lastFailureTime: Long = 0
+    )
+
+    /**
+     * 正在使用的镜像
+     */
+    private class Session(val url: String, val startTime: Long, val startBytes: Long)
+
+    private val statsMap: ConcurrentHashMap<String, Stats> = ConcurrentHashMap()
+
+    private val sessionMap: ConcurrentHashMap<String, Session> = ConcurrentHashMap()
+
+    /**
+     * 所有镜像的统计，按排名排列
+     */
+    fun stats(): List<Stats> {
+        return statsMap.values.sortedWith(ranking(SystemClock.elapsedRealtime()))
+    }
+
+    fun get(url: String): Stats? {
+        return statsMap[host(url)]
+    }
+
+    /**
+     * 把统计输出到日志
+     */
+    fun dump() {
+        stats().forEach {
+            "download mirror [${it.host}] latency ${it.latencyMs}ms, ${FileTool.bytes2kb(it.throughput)}/s, successes ${it.successes}, failures ${it.failures}".logi()
+        }
+    }
+
+    /**
+     * 向排名靠前的 [raceCount] 个镜像同时发出请求
+     * @param key String 下载标识
+     * @param urls List<String> 候选地址，只有一个时直接请求
+     * @param block 发出请求
+     * @return Pair<String, Response<T>> 选中的地址和它的响应：最先成功的响应；都没有成功时为排名最靠前的响应，由调用方按状态码处理
+     */
+    internal suspend fun <T> race(
+        key: String,
+        urls: List<String>,
+        block: suspend (String) -> Response<T>
+    ): Pair<String, Response<T>> {
+        finish(key)
+        if (urls.size == 1) {
+            val url = urls[0]
+            return url to block(url).also { begin(key, url) }
+        }
+        val candidates = rank(urls).take(raceCount.coerceAtLeast(1))
+        "key $key race mirrors ${candidates.joinToString { host(it) }}".logi()
+        val results = Channel<Attempt<T>>(candidates.size)
+        val (winner, losers) = coroutineScope {
+            val racers = candidates.map { url ->
+                launch {
+                    val start = SystemClock.elapsedRealtime()
+                    //容量等于镜像数，trySend 不会失败，被取消的请求同样发送结果，保证能收到所有结果
+                    results.trySend(Attempt(url, runCatching { block(url) }, SystemClock.elapsedRealtime() - start))
+                }
+            }
+            val received = ArrayList<Attempt<T>>()
+            var winner: Attempt<T>? = null
+            while (winner == null && received.size < candidates.size) {
+                val attempt = results.receive()
+                received += attempt
+                if (attempt.response?.isSuccessful == true) {
+                    winner = attempt
+                } else if (attempt.response?.code() != 416) {
+                    //416 是续传位置的问题，不是镜像的问题
+                    onFailure(attempt.url)
+                }
+            }
+            racers.forEach { it.cancel() }
+            racers.joinAll()
+            results.close()
+            //竞速失败的镜像关闭连接
+            for (attempt in results) received += attempt
+            winner to received.filter { it !== winner }
+        }
+        if (winner != null) {
+            losers.forEach { it.close() }
+            onSuccess(winner.url, winner.latencyMs)
+            begin(key, winner.url)
+            "key $key use mirror ${host(winner.url)} in ${winner.latencyMs}ms".logi()
+            return winner.url to winner.response!!
+        }
+        //都没有成功，返回排名最靠前的响应，由调用方处理（例如 416 时从头下载）
+        val first = candidates.firstNotNullOfOrNull { url -> losers.firstOrNull { it.url == url && it.response != null } }
+        losers.filter { it !== first }.forEach { it.close() }
+        if (first == null) {
+            throw losers.first { it.url == candidates[0] }.result.exceptionOrNull()!!
+        }
+        begin(key, first.url)
+        return first.url to first.response!!
+    }
+
+    /**
+     * 当前镜像下载出错或停顿
+     * @param urls List<String> 下载的候选地址
+     * @return Boolean 是否还有其他可以切换的镜像
+     */
+    internal fun failover(key: String, urls: List<String>): Boolean {
+        val session = sessionMap.remove(key) ?: return false
+        record(key, session)
+        onFailure(session.url)
+        if (urls.size < 2) {
+            return false
+        }
+        val now = SystemClock.elapsedRealtime()
+        return urls.any { it != session.url && !isCoolingDown(statsMap[host(it)], now) }
+    }
+
+    /**
+     * 下载结束（完成、暂停、取消、被抢占），记录当前镜像的吞吐量
+     */
+    internal fun finish(key: String) {
+        sessionMap.remove(key)?.let { record(key, it) }
+    }
+
+    private fun begin(key: String, url: String) {
+        val bytes = DownLoadTelemetry.recorder(key)?.snapshot()?.fetchedBytes ?: return
+        sessionMap[key] = Session(url, SystemClock.elapsedRealtime(), bytes)
+    }
+
+    /**
+     * 记录镜像本次传输的吞吐量
+     */
+    private fun record(key: String, session: Session) {
+        val bytes = DownLoadTelemetry.recorder(key)?.snapshot()?.fetchedBytes ?: return
+        val fetched = bytes - session.startBytes
+        val duration = SystemClock.elapsedRealtime() - session.startTime
+        if (fetched < MIN_SAMPLE_BYTES || duration <= 0) {
+            return
+        }
+        val speed = fetched * 1000.0 / duration
+        statsMap.compute(host(session.url)) { host, stats ->
+            val old = stats ?: Stats(host)
+            old.copy(throughput = ewma(old.throughput, speed))
+        }
+    }
+
+    private fun onSuccess(url: String, latencyMs: Long) {
+        statsMap.compute(host(url)) { host, stats ->
+            val old = stats ?: Stats(host)
+            old.copy(
+                latencyMs = if (old.latencyMs < 0) latencyMs else ewma(old.latencyMs, latencyMs.toDouble()),
+                successes = old.successes + 1
+            )
+        }
+    }
+
+    private fun onFailure(url: String) {
+        statsMap.compute(host(url)) { host, stats ->
+            val old = stats ?: Stats(host)
+            old.copy(failures = old.failures + 1, lastFailureTime = SystemClock.elapsedRealtime())
+        }
+    }
+
+    /**
+     * 按排名排列候选地址，同一 host 的多个地址保持原来的顺序
+     */
+    private fun rank(urls: List<String>): List<String> {
+        val order = ranking(SystemClock.elapsedRealtime())
+        return urls.distinct().sortedWith { a, b ->
+            order.compare(statsMap[host(a)] ?: Stats(host(a)), statsMap[host(b)] ?: Stats(host(b)))
+        }
+    }
+
+    /**
+     * 排名：最近失败的排在最后，其次吞吐量高的在前，没有记录的排在有记录的前面以便获得统计，最后按延迟
+     */
+    private fun ranking(now: Long): Comparator<Stats> {
+        return compareBy<Stats> { isCoolingDown(it, now) }
+            .thenByDescending { if (it.successes == 0) Long.MAX_VALUE else it.throughput }
+            .thenBy { it.latencyMs }
+    }
+
+    private fun isCoolingDown(stats: Stats?, now: Long): Boolean {
+        return stats != null && stats.lastFailureTime > 0 && now - stats.lastFailureTime < FAILURE_COOLDOWN
+    }
+
+    private fun ewma(old: Long, value: Double): Long {
+        return if (old <= 0) value.toLong() else (EWMA_ALPHA * value + (1 - EWMA_ALPHA) * old).toLong()
+    }
+
+    private fun host(url: String): String {
+        return url.toHttpUrlOrNull()?.let { "${it.host}:${it.port}" } ?: url
+    }
+
+    /**
+     * 单个镜像的请求结果
+     */
+    private class Attempt<T>(val url: String, val result: Result<Response<T>>, val latencyMs: Long) {
+        val response: Response<T>? get() = result.getOrNull()
+
+        fun close() {
+            val response = response ?: return
+            (response.body() as? Closeable)?.close()
+            response.errorBody()?.close()
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.maxvision.mvvm.ext.download
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 增量下载：下载旧版本到新版本的补丁，和本地的旧文件合成新文件，补丁不可用时回退完整下载
+ * 补丁格式见 [DownLoadPatcher]，合成结果必须通过 [DownLoadChecksum] 校验，所以需要同时设置期望的摘要
+ *
+ * 使用示例：
+ * ```kotlin
+ * downLoadManager.downLoad(tag, fullUrl, savePath, "bundle_v2.bin", loadListener = listener,
+ *     checksum = DownLoadChecksum.sha256(v2Hash),
+ *     patch = DownLoadPatch("$savePath/bundle_v1.bin", "$cdn/bundle_v1_v2.patch"))
+ * ```
+ * @param basePath String 本地旧文件的完整路径，可以和保存路径相同（原地更新）
+ * @param patchUrl String 补丁的下载地址
+ */
+data class DownLoadPatch(
+    val basePath: String,
+    val patchUrl: String
+)
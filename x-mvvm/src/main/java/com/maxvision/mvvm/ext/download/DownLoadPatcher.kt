@@ -0,0 +1,261 @@
+package com.maxvision.mvvm.ext.download
+
+import com.maxvision.mvvm.ext.util.logi
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.ensureActive
+import okhttp3.ResponseBody
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.io.FilterInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.util.zip.GZIPInputStream
+import kotlin.coroutines.coroutineContext
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 增量下载的补丁合成，见 [DownLoadPatch]
+ * 补丁使用 bsdiff 4.3 (ENDSLEY/BSDIFF43) 的格式：16 字节标识 + 8 字节新文件大小，之后是压缩的数据流，
+ * 数据流中依次是 {控制块 [diff 长度][extra 长度][旧文件偏移]、diff 数据、extra 数据}，
+ * 边下载边按控制块读取旧文件合成新文件，不需要先保存补丁
+ *
+ * 数据流的压缩支持 gzip 和不压缩；bsdiff 默认的 bzip2 需要通过 [bzip2Decoder] 提供解码（JDK 没有 bzip2），
+ * 也可以在服务端把 bzip2 数据流转成 gzip（保留前 24 字节）
+ *
+ * 合成失败（补丁不存在、格式错误、旧文件不匹配、结果校验失败）时记录下来，之后直接完整下载
+ */
+object DownLoadPatcher {
+
+    private const val MAGIC = "ENDSLEY/BSDIFF43"
+
+    private const val HEADER_SIZE = 24
+
+    /**
+     * bzip2 数据流的解码，例如使用 commons-compress：`{ BZip2CompressorInputStream(it) }`
+     */
+    var bzip2Decoder: ((InputStream) -> InputStream)? = null
+
+    /**
+     * 下载补丁并合成
+     * @param key String 下载标识
+     * @param service DownLoadService 下载服务
+     * @param patch DownLoadPatch 补丁信息
+     * @param targetFile File 新文件的保存路径
+     * @param checksum DownLoadChecksum? 新文件的校验，必须有期望的摘要
+     * @param loadListener OnDownLoadListener
+     * @return Boolean 是否成功，false 时回退完整下载
+     */
+    internal suspend fun download(
+        key: String,
+        service: DownLoadService,
+        patch: DownLoadPatch,
+        targetFile: File,
+        checksum: DownLoadChecksum?,
+        loadListener: OnDownLoadListener
+    ): Boolean {
+        if (DownLoadJournal.contains(failedKey(key))) {
+            return false
+        }
+        val baseFile = File(patch.basePath)
+        if (checksum?.expected == null || !baseFile.isFile) {
+            "key $key 没有期望的摘要或旧文件不存在 完整下载".logi()
+            return fail(key)
+        }
+        val tempFile = File(targetFile.path + ".patch")
+        try {
+            val response = service.downloadFile("bytes=0-", patch.patchUrl)
+            val responseBody = response.body()
+            if (!response.isSuccessful || responseBody == null) {
+                response.errorBody()?.close()
+                throw IOException("patch response code ${response.code()}")
+            }
+            val size = responseBody.use { apply(key, it, baseFile, tempFile, checksum, loadListener) }
+            if (targetFile.exists() && !targetFile.delete() || !tempFile.renameTo(targetFile)) {
+                throw IOException("rename ${tempFile.path} failed")
+            }
+            "key $key 增量更新完成 ${FileTool.bytes2kb(size)}".logi()
+            loadListener.onDownLoadSuccess(key, targetFile.path, size)
+            DownLoadPool.remove(key)
+            return true
+        } catch (e: CancellationException) {
+            tempFile.delete()
+            throw e
+        } catch (e: Exception) {
+            coroutineContext.ensureActive()
+            "key $key 增量更新失败 ${e.message} 完整下载".logi()
+            tempFile.delete()
+            return fail(key)
+        }
+    }
+
+    /**
+     * 清除失败记录
+     */
+    fun clear(key: String) {
+        DownLoadJournal.remove(failedKey(key))
+    }
+
+    private fun fail(key: String): Boolean {
+        DownLoadJournal.putInt(failedKey(key), 1)
+        return false
+    }
+
+    /**
+     * 合成新文件
+     * @return Long 新文件大小
+     */
+    private suspend fun apply(
+        key: String,
+        responseBody: ResponseBody,
+        baseFile: File,
+        tempFile: File,
+        checksum: DownLoadChecksum,
+        loadListener: OnDownLoadListener
+    ): Long {
+        val totalLength = responseBody.contentLength()
+        val recorder = DownLoadTelemetry.recorder(key)
+        recorder?.onTotal(totalLength)
+        val input = ProgressInputStream(responseBody.byteStream()) { read ->
+            recorder?.onRead(read.toInt())
+        }
+        val header = ByteArray(HEADER_SIZE)
+        DataInputStream(input).readFully(header)
+        if (String(header, 0, MAGIC.length, Charsets.US_ASCII) != MAGIC) {
+            throw IOException("not a bsdiff 4.3 patch")
+        }
+        val newSize = offtin(header, MAGIC.length)
+        if (newSize < 0) {
+            throw IOException("corrupt patch header")
+        }
+        tempFile.parentFile?.mkdirs()
+        FileTool.checkFreeSpace(tempFile.parentFile ?: tempFile, newSize)
+        val digest = checksum.createDigest()
+        val stream = DataInputStream(decode(input))
+        RandomAccessFile(baseFile, "r").use { base ->
+            val oldChannel = base.channel
+            val oldSize = oldChannel.size()
+            BufferedOutputStream(FileOutputStream(tempFile)).use { output ->
+                val control = ByteArray(24)
+                val buffer = ByteArray(FileTool.bufferSize)
+                val oldBuffer = ByteBuffer.wrap(ByteArray(FileTool.bufferSize))
+                var newPos = 0L
+                var oldPos = 0L
+                var lastProgress = -1
+                while (newPos < newSize) {
+                    coroutineContext.ensureActive()
+                    stream.readFully(control)
+                    val diffLength = offtin(control, 0)
+                    val extraLength = offtin(control, 8)
+                    val seek = offtin(control, 16)
+                    if (diffLength < 0 || extraLength < 0 || newPos + diffLength + extraLength > newSize) {
+                        throw IOException("corrupt patch control block")
+                    }
+                    //diff 数据加上旧文件对应位置的字节，旧文件范围外的按 0 处理
+                    var remaining = diffLength
+                    while (remaining > 0) {
+                        val count = minOf(remaining, buffer.size.toLong()).toInt()
+                        stream.readFully(buffer, 0, count)
+                        val start = oldPos.coerceIn(0, oldSize)
+                        val end = (oldPos + count).coerceIn(0, oldSize)
+                        if (end > start) {
+                            oldBuffer.clear().limit((end - start).toInt())
+                            while (oldBuffer.hasRemaining()) {
+                                if (oldChannel.read(oldBuffer, start + oldBuffer.position()) < 0) break
+                            }
+                            val offset = (start - oldPos).toInt()
+                            val oldBytes = oldBuffer.array()
+                            for (i in 0 until (end - start).toInt()) {
+                                buffer[offset + i] = (buffer[offset + i] + oldBytes[i]).toByte()
+                            }
+                        }
+                        output.write(buffer, 0, count)
+                        digest.update(buffer, 0, count)
+                        remaining -= count
+                        oldPos += count
+                    }
+                    //extra 数据直接写入
+                    remaining = extraLength
+                    while (remaining > 0) {
+                        val count = minOf(remaining, buffer.size.toLong()).toInt()
+                        stream.readFully(buffer, 0, count)
+                        output.write(buffer, 0, count)
+                        digest.update(buffer, 0, count)
+                        remaining -= count
+                    }
+                    newPos += diffLength + extraLength
+                    oldPos += seek
+                    val progress = if (totalLength > 0) (input.read * 100 / totalLength).toInt().coerceAtMost(100) else -1
+                    if (progress != lastProgress) {
+                        lastProgress = progress
+                        loadListener.onUpdate(key, progress, input.read, totalLength, false)
+                    }
+                }
+                loadListener.onUpdate(key, 100, input.read, totalLength, true)
+            }
+        }
+        checksum.check(digest.digestHex())?.let { throw it }
+        return newSize
+    }
+
+    /**
+     * 根据数据流开头的标识选择解码
+     */
+    private fun decode(input: InputStream): InputStream {
+        val buffered = BufferedInputStream(input)
+        buffered.mark(3)
+        val b0 = buffered.read()
+        val b1 = buffered.read()
+        val b2 = buffered.read()
+        buffered.reset()
+        return when {
+            b0 == 0x1f && b1 == 0x8b -> GZIPInputStream(buffered, FileTool.bufferSize)
+            b0 == 'B'.code && b1 == 'Z'.code && b2 == 'h'.code -> bzip2Decoder?.invoke(buffered)
+                ?: throw IOException("bzip2 patch requires DownLoadPatcher.bzip2Decoder")
+            else -> buffered
+        }
+    }
+
+    /**
+     * bsdiff 的 8 字节整数：小端，最高位是符号位
+     */
+    private fun offtin(bytes: ByteArray, offset: Int): Long {
+        var value = (bytes[offset + 7].toLong() and 0x7f)
+        for (i in 6 downTo 0) {
+            value = (value shl 8) or (bytes[offset + i].toLong() and 0xff)
+        }
+        return if (bytes[offset + 7].toInt() and 0x80 != 0) -value else value
+    }
+
+    private fun failedKey(key: String) = "${key}_patch_failed"
+
+    /**
+     * 统计读取的补丁字节数
+     */
+    private class ProgressInputStream(input: InputStream, private val onRead: (Long) -> Unit) : FilterInputStream(input) {
+        var read = 0L
+            private set
+
+        override fun read(): Int {
+            val value = super.read()
+            if (value >= 0) count(1)
+            return value
+        }
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            val count = super.read(b, off, len)
+            if (count > 0) count(count.toLong())
+            return count
+        }
+
+        private fun count(bytes: Long) {
+            read += bytes
+            onRead(bytes)
+        }
+    }
+}
@@ -1,18 +1,85 @@
 package com.maxvision.mvvm.ext.download
 
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.cancel
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.isActive
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
 
 
 /**
  * 作者　: cl
  * 时间　: 2023/04/12
+ * 描述　: 下载池，同时负责按优先级调度下载
+ * 1. 同时下载数量不超过 [maxConcurrent]，其余的排队等待
+ * 2. 高优先级先下载，同一优先级内先来先下载
+ * 3. 没有空位时，用户下载会抢占正在进行的预加载下载，被抢占的下载重新排队并从断点继续
+ * 4. 断网或等待重试的下载不占用下载位置
  */
 
 object DownLoadPool {
 
+    /**
+     * 下载队列状态
+     * @param running List<String> 正在下载的标识
+     * @param waiting List<String> 等待中的标识，按下载顺序排列
+     * @param parked List<String> 断网、等待重试或等待运行条件的标识
+     */
+    data class QueueState(
+        val running: List<String> = emptyList(),
+        val waiting: List<String> = emptyList(),
+        val parked: List<String> = emptyList()
+    )
+
+    private class Waiter(val key: String, val priority: DownLoadPriority, val sequence: Long) {
+        val signal = CompletableDeferred<Unit>()
+    }
+
+    private val lock = Any()
+
+    private val sequence = AtomicLong()
+
+    //等待中的下载
+    private val waitingList = ArrayList<Waiter>()
+
+    //正在下载的优先级
+    private val runningMap = LinkedHashMap<String, DownLoadPriority>()
+
+    //正在下载的任务，用于抢占
+    private val runningJobMap = HashMap<String, Job>()
+
+    //被抢占的下载
+    private val preemptedSet = HashSet<String>()
+
+    //断网或等待重试的下载
+    private val parkedSet = LinkedHashSet<String>()
+
+    private val _queueStateFlow = MutableStateFlow(QueueState())
+
+    /**
+     * 下载队列状态，可用于显示排队位置
+     */
+    val queueStateFlow: StateFlow<QueueState> = _queueStateFlow.asStateFlow()
+
+    /**
+     * 最大同时下载数量，运行时修改立即生效
+     */
+    @Volatile
+    var maxConcurrent = 3
+        set(value) {
+            field = value.coerceAtLeast(1)
+            synchronized(lock) {
+                promote()
+            }
+            publish()
+        }
+
 
     private val scopeMap: ConcurrentHashMap<String, CoroutineScope> = ConcurrentHashMap()
 
@@ -42,11 +109,25 @@ object DownLoadPool {
         scopeMap.remove(key)
         listenerHashMap.remove(key)
         pathMap.remove(key)
+        consumePreempted(key)
+        unpark(key)
+        DownLoadQueue.remove(key)
+        DownLoadRateLimiter.removeLimit(key)
+        DownLoadChecksum.clear(key)
+        DownLoadValidator.clear(key)
+        DownLoadJournal.remove(key)
+        SegmentDownLoader.clearSegments(key)
+        ZipStreamExtractor.clear(key)
+        DownLoadPatcher.clear(key)
+        DownLoadJournal.flush()
         ShareDownLoadUtil.remove(key)
     }
 
 
     fun pause(key: String) {
+        DownLoadJournal.flush()
+        DownLoadMirrors.finish(key)
+        DownLoadTelemetry.finish(key)
         val scope = scopeMap[key]
         if (scope != null && scope.isActive) {
             scope.cancel()
@@ -74,4 +155,139 @@ object DownLoadPool {
         return listenerHashMap
     }
 
+    /**
+     * 获取下载顺序号，同一优先级内按顺序号先来先下载
+     */
+    fun nextSequence(): Long {
+        return sequence.incrementAndGet()
+    }
+
+    /**
+     * 等待下载位置，有空位时立即返回
+     * @param key String 标识
+     * @param priority DownLoadPriority 优先级
+     * @param sequence Long 顺序号，被抢占后重新排队时沿用原来的顺序号
+     */
+    suspend fun acquire(key: String, priority: DownLoadPriority, sequence: Long) {
+        val waiter = Waiter(key, priority, sequence)
+        synchronized(lock) {
+            if (runningMap.size < maxConcurrent && waitingList.none { it.priority.level >= priority.level }) {
+                runningMap[key] = priority
+                waiter.signal.complete(Unit)
+            } else {
+                val index = waitingList.indexOfFirst {
+                    it.priority.level < priority.level || (it.priority == priority && it.sequence > sequence)
+                }
+                waitingList.add(if (index == -1) waitingList.size else index, waiter)
+                preempt()
+            }
+        }
+        publish()
+        try {
+            waiter.signal.await()
+        } catch (e: CancellationException) {
+            synchronized(lock) {
+                waitingList.remove(waiter)
+            }
+            if (waiter.signal.isCompleted) {
+                release(key)
+            } else {
+                publish()
+            }
+            throw e
+        }
+    }
+
+    /**
+     * 记录正在下载的任务，抢占时取消该任务
+     */
+    fun attach(key: String, job: Job) {
+        synchronized(lock) {
+            runningJobMap[key] = job
+        }
+    }
+
+    /**
+     * 释放下载位置
+     */
+    fun release(key: String) {
+        synchronized(lock) {
+            runningMap.remove(key)
+            runningJobMap.remove(key)
+            promote()
+        }
+        publish()
+    }
+
+    /**
+     * 是否被抢占，读取后清除标记
+     */
+    fun consumePreempted(key: String): Boolean {
+        synchronized(lock) {
+            return preemptedSet.remove(key)
+        }
+    }
+
+    /**
+     * 标记为断网或等待重试
+     */
+    fun park(key: String) {
+        synchronized(lock) {
+            parkedSet.add(key)
+        }
+        publish()
+    }
+
+    fun unpark(key: String) {
+        val removed = synchronized(lock) {
+            parkedSet.remove(key)
+        }
+        if (removed) publish()
+    }
+
+    /**
+     * 排队位置
+     * @return Int 从0开始，不在等待队列中返回 -1
+     */
+    fun getWaitingPosition(key: String): Int {
+        return queueStateFlow.value.waiting.indexOf(key)
+    }
+
+    /**
+     * 有空位时按顺序唤醒等待的下载
+     */
+    private fun promote() {
+        while (runningMap.size < maxConcurrent && waitingList.isNotEmpty()) {
+            val waiter = waitingList.removeAt(0)
+            runningMap[waiter.key] = waiter.priority
+            waiter.signal.complete(Unit)
+        }
+    }
+
+    /**
+     * 没有空位时，为等待中的用户下载抢占预加载下载
+     */
+    private fun preempt() {
+        val userWaiting = waitingList.count { it.priority == DownLoadPriority.USER }
+        var preempting = preemptedSet.count { runningMap.containsKey(it) }
+        //后开始的预加载先被抢占，损失的进度最少
+        val victims = runningMap.entries.reversed()
+            .filter { it.value == DownLoadPriority.PREFETCH && !preemptedSet.contains(it.key) }
+            .map { it.key }
+        for (victim in victims) {
+            if (preempting >= userWaiting) break
+            val job = runningJobMap[victim] ?: continue
+            preemptedSet.add(victim)
+            job.cancel(CancellationException("preempted by user download"))
+            preempting++
+        }
+    }
+
+    private fun publish() {
+        val state = synchronized(lock) {
+            QueueState(runningMap.keys.toList(), waitingList.map { it.key }, parkedSet.toList())
+        }
+        _queueStateFlow.value = state
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,19 @@
+package com.maxvision.mvvm.ext.download
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 下载优先级，同一优先级内按先来先下载
+ */
+enum class DownLoadPriority(val level: Int) {
+
+    /**
+     * 预加载，可被用户主动发起的下载抢占
+     */
+    PREFETCH(0),
+
+    /**
+     * 用户主动发起的下载
+     */
+    USER(1)
+}
@@ -10,9 +10,9 @@ interface DownLoadProgressListener {
     /**
      * 下载进度
      * @param key url
-     * @param progress  进度
+     * @param progress  进度，总长度未知时为 -1
      * @param read  读取
-     * @param count 总共长度
+     * @param count 总共长度，未知时为 -1
      * @param done  是否完成
      */
     fun onUpdate( key: String,progress: Int, read: Long,count: Long,done: Boolean)
@@ -0,0 +1,216 @@
+package com.maxvision.mvvm.ext.download
+
+import com.maxvision.mvvm.base.BaseApplication.Companion.app
+import com.maxvision.mvvm.ext.util.loge
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.util.concurrent.Future
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 持久化的下载队列
+ * 下载开始时记录请求，完成、失败、取消时删除，进程被杀后未完成的请求仍然保留在文件中。
+ * 请求只在开始、暂停、结束时变化，变化后在 [DownLoadIo] 线程整体写入临时文件后替换，文件不会出现写了一半的状态；
+ * 内存中立即生效，调用方不等待磁盘，短时间内的多次变化（例如全部暂停）合并为一次写入
+ *
+ * 文件格式：[version:int][count:int]{[tag][url][savePath][saveName]:UTF [whetherHttps:boolean]
+ * [segmentCount:int][priority:UTF][hasChecksum:boolean]([algorithm:UTF][expected:UTF?][headerName:UTF?]) [unzipPath:UTF?][useCache:boolean][mirrorCount:int]{[mirror:UTF]}
+ * [requireUnmetered:boolean][requireCharging:boolean][requireIdle:boolean]
+ * [hasPatch:boolean]([basePath:UTF][patchUrl:UTF])[paused:boolean]}，
+ * 可以为空的字符串前面有一个 boolean 标记，版本不一致的文件不读取
+ */
+internal object DownLoadQueue {
+
+    private const val FILE_NAME = "download_queue.bin"
+
+    private const val VERSION = 1
+
+    private val file: File = File(app.filesDir, FILE_NAME)
+
+    private val requestMap = LinkedHashMap<String, DownLoadRequest>()
+
+    //已经提交、还没有开始的写入，期间的变化由它一起写入
+    private var saveScheduled = false
+
+    //在 IO 线程加载，访问前等待
+    private val loaded: Future<*> = DownLoadIo.executor.submit { load() }
+
+    fun put(request: DownLoadRequest) {
+        awaitLoaded()
+        synchronized(this) {
+            if (requestMap[request.tag] == request) {
+                return
+            }
+            requestMap[request.tag] = request
+            scheduleSave()
+        }
+    }
+
+    fun get(tag: String): DownLoadRequest? {
+        awaitLoaded()
+        synchronized(this) {
+            return requestMap[tag]
+        }
+    }
+
+    fun remove(tag: String) {
+        awaitLoaded()
+        synchronized(this) {
+            if (requestMap.remove(tag) != null) {
+                scheduleSave()
+            }
+        }
+    }
+
+    /**
+     * 标记为暂停/继续
+     */
+    fun setPaused(tag: String, paused: Boolean) {
+        awaitLoaded()
+        synchronized(this) {
+            val request = requestMap[tag] ?: return
+            put(request.copy(paused = paused))
+        }
+    }
+
+    /**
+     * 所有未完成的请求，按加入顺序
+     */
+    fun all(): List<DownLoadRequest> {
+        awaitLoaded()
+        synchronized(this) {
+            return requestMap.values.toList()
+        }
+    }
+
+    private fun awaitLoaded() {
+        loaded.get()
+    }
+
+    /**
+     * 提交一次写入，已经有等待中的写入时不重复提交
+     */
+    private fun scheduleSave() {
+        if (saveScheduled) {
+            return
+        }
+        saveScheduled = true
+        DownLoadIo.executor.execute {
+            val requests = synchronized(this) {
+                saveScheduled = false
+                requestMap.values.toList()
+            }
+            save(requests)
+        }
+    }
+
+    private fun load() {
+        if (!file.exists()) {
+            return
+        }
+        try {
+            DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+                val version = input.readInt()
+                if (version != VERSION) {
+                    return
+                }
+                repeat(input.readInt()) {
+                    val request = DownLoadRequest(
+                        tag = input.readUTF(),
+                        url = input.readUTF(),
+                        savePath = input.readUTF(),
+                        saveName = input.readUTF(),
+                        whetherHttps = input.readBoolean(),
+                        segmentCount = input.readInt(),
+                        priority = DownLoadPriority.valueOf(input.readUTF()),
+                        checksum = if (input.readBoolean()) {
+                            DownLoadChecksum(input.readUTF(), input.readNullableUTF(), input.readNullableUTF())
+                        } else {
+                            null
+                        },
+                        unzipPath = input.readNullableUTF(),
+                        useCache = input.readBoolean(),
+                        mirrors = List(input.readInt()) { input.readUTF() },
+                        constraints = DownLoadConstraints(input.readBoolean(), input.readBoolean(), input.readBoolean()),
+                        patch = if (input.readBoolean()) {
+                            DownLoadPatch(input.readUTF(), input.readUTF())
+                        } else {
+                            null
+                        },
+                        paused = input.readBoolean()
+                    )
+                    synchronized(this) {
+                        requestMap[request.tag] = request
+                    }
+                }
+            }
+        } catch (e: Exception) {
+            "download queue corrupted ${e.message}".loge()
+        }
+    }
+
+    private fun save(requests: List<DownLoadRequest>) {
+        val temp = File(file.path + ".tmp")
+        try {
+            FileOutputStream(temp).use { fos ->
+                val out = DataOutputStream(BufferedOutputStream(fos))
+                out.writeInt(VERSION)
+                out.writeInt(requests.size)
+                requests.forEach { request ->
+                    out.writeUTF(request.tag)
+                    out.writeUTF(request.url)
+                    out.writeUTF(request.savePath)
+                    out.writeUTF(request.saveName)
+                    out.writeBoolean(request.whetherHttps)
+                    out.writeInt(request.segmentCount)
+                    out.writeUTF(request.priority.name)
+                    val checksum = request.checksum
+                    out.writeBoolean(checksum != null)
+                    if (checksum != null) {
+                        out.writeUTF(checksum.algorithm)
+                        out.writeNullableUTF(checksum.expected)
+                        out.writeNullableUTF(checksum.headerName)
+                    }
+                    out.writeNullableUTF(request.unzipPath)
+                    out.writeBoolean(request.useCache)
+                    out.writeInt(request.mirrors.size)
+                    request.mirrors.forEach { out.writeUTF(it) }
+                    out.writeBoolean(request.constraints.requireUnmetered)
+                    out.writeBoolean(request.constraints.requireCharging)
+                    out.writeBoolean(request.constraints.requireIdle)
+                    val patch = request.patch
+                    out.writeBoolean(patch != null)
+                    if (patch != null) {
+                        out.writeUTF(patch.basePath)
+                        out.writeUTF(patch.patchUrl)
+                    }
+                    out.writeBoolean(request.paused)
+                }
+                out.flush()
+                fos.fd.sync()
+            }
+            if (!temp.renameTo(file)) {
+                throw IOException("rename ${temp.path} failed")
+            }
+        } catch (e: IOException) {
+            "download queue save error ${e.message}".loge()
+            temp.delete()
+        }
+    }
+
+    private fun DataInputStream.readNullableUTF(): String? {
+        return if (readBoolean()) readUTF() else null
+    }
+
+    private fun DataOutputStream.writeNullableUTF(value: String?) {
+        writeBoolean(value != null)
+        if (value != null) writeUTF(value)
+    }
+}
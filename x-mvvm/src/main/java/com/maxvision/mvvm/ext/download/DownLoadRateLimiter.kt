@@ -0,0 +1,128 @@
+package com.maxvision.mvvm.ext.download
+
+import com.maxvision.mvvm.ext.lifecycle.KtxAppLifeObserver
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 下载限速（令牌桶），同时支持全局限速和单个下载限速，运行时修改立即生效
+ *
+ * 使用示例：
+ * ```kotlin
+ * // 全局限速 2MB/s
+ * DownLoadRateLimiter.globalBytesPerSecond = 2 * 1024 * 1024
+ * // 单个下载限速 512KB/s
+ * DownLoadRateLimiter.setLimit("TAG", 512 * 1024)
+ * // App 在前台时全局限速 256KB/s，进入后台恢复不限速
+ * DownLoadRateLimiter.limitInForeground(applicationScope, 256 * 1024)
+ * ```
+ */
+object DownLoadRateLimiter {
+
+    /** 不限速 */
+    const val UNLIMITED = 0L
+
+    /**
+     * 令牌桶，允许一秒的突发流量，令牌不足时预支并返回需要等待的时间
+     */
+    private class TokenBucket(bytesPerSecond: Long) {
+
+        var bytesPerSecond: Long = bytesPerSecond
+            @Synchronized set(value) {
+                refill()
+                field = value
+                tokens = tokens.coerceAtMost(value.toDouble())
+            }
+
+        private var tokens = bytesPerSecond.toDouble()
+        private var lastRefillNanos = System.nanoTime()
+
+        /**
+         * 消耗令牌
+         * @return Long 需要等待的纳秒数
+         */
+        @Synchronized
+        fun reserve(bytes: Int): Long {
+            if (bytesPerSecond <= UNLIMITED) return 0L
+            refill()
+            tokens -= bytes
+            return if (tokens >= 0) 0L else (-tokens / bytesPerSecond * TimeUnit.SECONDS.toNanos(1)).toLong()
+        }
+
+        private fun refill() {
+            val now = System.nanoTime()
+            if (bytesPerSecond > UNLIMITED) {
+                val elapsed = (now - lastRefillNanos).toDouble() / TimeUnit.SECONDS.toNanos(1)
+                tokens = (tokens + elapsed * bytesPerSecond).coerceAtMost(bytesPerSecond.toDouble())
+            }
+            lastRefillNanos = now
+        }
+    }
+
+    private val globalBucket = TokenBucket(UNLIMITED)
+
+    private val bucketMap: ConcurrentHashMap<String, TokenBucket> = ConcurrentHashMap()
+
+    /**
+     * 全局限速（字节/秒），[UNLIMITED] 表示不限速
+     */
+    var globalBytesPerSecond: Long
+        get() = globalBucket.bytesPerSecond
+        set(value) {
+            globalBucket.bytesPerSecond = value
+        }
+
+    /**
+     * 设置单个下载的限速
+     * @param key String 下载标识
+     * @param bytesPerSecond Long 字节/秒，[UNLIMITED] 表示不限速
+     */
+    fun setLimit(key: String, bytesPerSecond: Long) {
+        val bucket = bucketMap.getOrPut(key) { TokenBucket(bytesPerSecond) }
+        bucket.bytesPerSecond = bytesPerSecond
+    }
+
+    /**
+     * 移除单个下载的限速
+     */
+    fun removeLimit(key: String) {
+        bucketMap.remove(key)
+    }
+
+    /**
+     * App 在前台时降低全局限速，进入后台后恢复
+     * @param scope CoroutineScope 监听前后台所在的作用域
+     * @param foregroundBytesPerSecond Long 前台时的全局限速
+     * @param backgroundBytesPerSecond Long 后台时的全局限速，默认不限速
+     * @return Job 取消后停止监听
+     */
+    fun limitInForeground(
+        scope: CoroutineScope,
+        foregroundBytesPerSecond: Long,
+        backgroundBytesPerSecond: Long = UNLIMITED
+    ): Job = scope.launch {
+        KtxAppLifeObserver.isForegroundFlow.collect { isForeground ->
+            globalBytesPerSecond = if (isForeground) foregroundBytesPerSecond else backgroundBytesPerSecond
+        }
+    }
+
+    /**
+     * 读取数据后调用，超出限速时挂起
+     * @param key String 下载标识
+     * @param bytes Int 本次读取的字节数
+     */
+    suspend fun acquire(key: String, bytes: Int) {
+        val keyWait = bucketMap[key]?.reserve(bytes) ?: 0L
+        val globalWait = globalBucket.reserve(bytes)
+        val waitNanos = maxOf(keyWait, globalWait)
+        if (waitNanos > 0) {
+            delay(TimeUnit.NANOSECONDS.toMillis(waitNanos).coerceAtLeast(1))
+        }
+    }
+}
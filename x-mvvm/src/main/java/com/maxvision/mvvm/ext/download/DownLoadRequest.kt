@@ -0,0 +1,44 @@
+package com.maxvision.mvvm.ext.download
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 持久化的下载请求，进程被杀后由 [DownLoadManager.restore] 恢复
+ * @param tag String 标识
+ * @param url String 下载地址
+ * @param savePath String 保存的路径
+ * @param saveName String 保存的名字
+ * @param whetherHttps Boolean 是否忽略https
+ * @param segmentCount Int 分段数
+ * @param priority DownLoadPriority 优先级
+ * @param checksum DownLoadChecksum? 下载校验
+ * @param unzipPath String? 边下载边解压 ZIP 的目录，为空时保存为文件
+ * @param useCache Boolean 是否使用 [DownLoadCache]
+ * @param mirrors List<String> 其他镜像地址，见 [DownLoadMirrors]
+ * @param constraints DownLoadConstraints 运行条件
+ * @param patch DownLoadPatch? 增量下载的补丁
+ * @param paused Boolean 是否被用户暂停，暂停的下载默认不恢复
+ */
+data class DownLoadRequest(
+    val tag: String,
+    val url: String,
+    val savePath: String,
+    val saveName: String,
+    val whetherHttps: Boolean = false,
+    val segmentCount: Int = 1,
+    val priority: DownLoadPriority = DownLoadPriority.USER,
+    val checksum: DownLoadChecksum? = null,
+    val unzipPath: String? = null,
+    val useCache: Boolean = false,
+    val mirrors: List<String> = emptyList(),
+    val constraints: DownLoadConstraints = DownLoadConstraints.NONE,
+    val patch: DownLoadPatch? = null,
+    val paused: Boolean = false
+) {
+
+    /**
+     * 所有候选地址，[url] 在前
+     */
+    val urls: List<String>
+        get() = (listOf(url) + mirrors).distinct()
+}
@@ -0,0 +1,41 @@
+package com.maxvision.mvvm.ext.download
+
+import kotlin.math.pow
+import kotlin.random.Random
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 下载失败重试策略（指数退避 + 随机抖动），重试时从最后记录的断点继续
+ * 只有网络错误（IOException、5xx、408、429）会重试，校验失败等错误直接回调 onDownLoadError；
+ * 断网期间不计入重试次数，网络恢复后立即继续
+ *
+ * @param maxRetries Int 连续失败的最大重试次数，期间有下载进度时重新计数
+ * @param initialDelayMs Long 第一次重试的等待时间(ms)
+ * @param maxDelayMs Long 最大等待时间(ms)
+ * @param multiplier Double 每次重试等待时间的倍数
+ * @param jitter Double 随机抖动比例（0~1），避免大量下载同时重试
+ */
+data class DownLoadRetryPolicy(
+    val maxRetries: Int = 5,
+    val initialDelayMs: Long = 1000,
+    val maxDelayMs: Long = 30_000,
+    val multiplier: Double = 2.0,
+    val jitter: Double = 0.5
+) {
+
+    /**
+     * 第 [attempt] 次重试前的等待时间(ms)
+     * @param attempt Int 从1开始
+     */
+    fun delayFor(attempt: Int): Long {
+        val base = (initialDelayMs * multiplier.pow(attempt - 1)).coerceAtMost(maxDelayMs.toDouble())
+        val factor = 1 - jitter.coerceIn(0.0, 1.0) * Random.nextDouble()
+        return (base * factor).toLong()
+    }
+
+    companion object {
+        /** 不重试 */
+        val NONE = DownLoadRetryPolicy(maxRetries = 0)
+    }
+}
@@ -3,6 +3,7 @@ package com.maxvision.mvvm.ext.download
 import okhttp3.ResponseBody
 import retrofit2.Response
 import retrofit2.http.GET
+import retrofit2.http.HEAD
 import retrofit2.http.Header
 import retrofit2.http.Streaming
 import retrofit2.http.Url
@@ -13,10 +14,23 @@ import retrofit2.http.Url
  *
  */
 interface DownLoadService {
+    /**
+     * @param start String Range
+     * @param ifRange String? 续传时带上开始下载时的 ETag / Last-Modified，远程文件变化时服务器返回整个文件
+     */
     @Streaming
     @GET
     suspend fun downloadFile(
         @Header("RANGE") start: String,
-        @Url url: String
+        @Url url: String,
+        @Header("If-Range") ifRange: String? = null
     ): Response<ResponseBody>
-}
\ No newline at end of file
+
+    /**
+     * 探测文件信息（Content-Length / Accept-Ranges），不下载body
+     */
+    @HEAD
+    suspend fun probeFile(
+        @Url url: String
+    ): Response<Void>
+}
@@ -0,0 +1,143 @@
+package com.maxvision.mvvm.ext.download
+
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.flow.MutableSharedFlow
+import java.io.File
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 相同下载来源去重
+ * 1. 同一个来源（[Source]）同时只有一个真正的传输（领头的下载），其余的请求跟随它，共享进度
+ * 2. 领头的下载完成后，跟随者保存路径不同时链接/复制文件，不再重新下载
+ * 3. 领头的下载被暂停或取消时，跟随者中的一个接替下载
+ * 4. 本次运行中已经下载完成的来源，再次下载到其他路径时直接链接/复制；
+ *    完成的文件被改动，或者它的保存路径开始了新的下载时，不再复用
+ */
+internal object DownLoadSingleFlight {
+
+    /** 记录已完成下载的最大数量 */
+    private const val MAX_COMPLETED = 64
+
+    /**
+     * 下载来源，决定下载得到的内容，全部相同的请求才共享
+     * @param url String 下载地址
+     * @param whetherHttps Boolean 是否 https，协议不同时服务端可能返回不同的内容
+     * @param mirrors List<String> 备用地址，失败时会从这些地址下载
+     * @param patch DownLoadPatch? 增量下载时结果还取决于本地的旧文件
+     */
+    data class Source(
+        val url: String,
+        val whetherHttps: Boolean,
+        val mirrors: List<String>,
+        val patch: DownLoadPatch?
+    ) {
+        companion object {
+            fun of(request: DownLoadRequest) = Source(request.url, request.whetherHttps, request.mirrors, request.patch)
+        }
+    }
+
+    /**
+     * 一次共享的传输
+     * @param source Source 下载来源
+     * @param checksum DownLoadChecksum? 领头下载的校验，校验条件不同的请求不共享
+     */
+    class Flight(val source: Source, val checksum: DownLoadChecksum?) {
+
+        val url: String
+            get() = source.url
+
+
+        /** 领头下载的状态，最新的一个重放给后加入的跟随者 */
+        val states = MutableSharedFlow<DownloadResultState>(
+            replay = 1,
+            extraBufferCapacity = 64,
+            onBufferOverflow = BufferOverflow.DROP_OLDEST
+        )
+
+        /** 传输结果，null 表示领头的下载被暂停或取消，需要接替 */
+        val result = CompletableDeferred<DownloadResultState?>()
+    }
+
+    /**
+     * 加入结果
+     * @param flight Flight 共享的传输
+     * @param leader Boolean 是否由自己负责传输
+     */
+    class Joined(val flight: Flight, val leader: Boolean)
+
+    /**
+     * 下载完成的文件，记录完成时的长度和修改时间，之后被改动的文件不再复用
+     */
+    private class Completed(val filePath: String, val checksum: DownLoadChecksum?, val length: Long, val lastModified: Long)
+
+    private val flightMap = HashMap<Source, Flight>()
+
+    //来源 -> 下载完成的文件，按访问顺序淘汰
+    private val completedMap = object : LinkedHashMap<Source, Completed>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Source, Completed>?): Boolean {
+            return size > MAX_COMPLETED
+        }
+    }
+
+    /**
+     * 加入相同来源的传输，没有时自己成为领头的下载
+     * @param filePath String 自己的保存路径，这个文件会被改写
+     */
+    @Synchronized
+    fun join(source: Source, checksum: DownLoadChecksum?, filePath: String): Joined {
+        //保存路径上的文件会被改写，记录在这个路径上的完成结果不能再复制
+        val path = File(filePath).path
+        completedMap.values.removeAll { File(it.filePath).path == path }
+        val flight = flightMap[source]
+        if (flight != null && !flight.result.isCompleted && flight.checksum == checksum) {
+            return Joined(flight, false)
+        }
+        if (flight != null && !flight.result.isCompleted) {
+            //校验条件不同，单独下载
+            return Joined(Flight(source, checksum), true)
+        }
+        //重新下载时文件会被改写，不能再复制
+        completedMap.remove(source)
+        return Flight(source, checksum).let {
+            flightMap[source] = it
+            Joined(it, true)
+        }
+    }
+
+    /**
+     * 领头的下载结束
+     * @param result DownloadResultState? 成功或失败，暂停、取消时为 null
+     */
+    @Synchronized
+    fun finish(flight: Flight, result: DownloadResultState?) {
+        if (flightMap[flight.source] === flight) {
+            flightMap.remove(flight.source)
+        }
+        if (result is DownloadResultState.Success) {
+            val file = File(result.filePath)
+            completedMap[flight.source] = Completed(result.filePath, flight.checksum, file.length(), file.lastModified())
+        }
+        flight.result.complete(result)
+    }
+
+    /**
+     * 本次运行中已经下载完成的文件
+     * @param checksum DownLoadChecksum? 需要的校验，和下载时的校验不同时不复用
+     * @return File? 文件已经不存在或者被改动时返回 null
+     */
+    @Synchronized
+    fun completedFile(source: Source, checksum: DownLoadChecksum?): File? {
+        val completed = completedMap[source] ?: return null
+        if (checksum != null && completed.checksum != checksum) {
+            return null
+        }
+        val file = File(completed.filePath)
+        if (!file.isFile || file.length() != completed.length || file.lastModified() != completed.lastModified) {
+            completedMap.remove(source)
+            return null
+        }
+        return file
+    }
+}
@@ -0,0 +1,62 @@
+package com.maxvision.mvvm.ext.download
+
+import kotlinx.coroutines.channels.Channel
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: downloadFlow 发送方和收集方之间的缓冲，写入不会挂起也不会丢失
+ * 连续的进度只保留最新的一个，其他状态（开始、暂停、成功、失败）按顺序全部保留，
+ * 收集方处理得慢时缓冲中最多是几个状态加一个进度，不会无限堆积
+ */
+internal class DownLoadStateBuffer {
+
+    private val queue = ArrayDeque<DownloadResultState>()
+
+    //有新数据或者关闭时通知 drainTo
+    private val signal = Channel<Unit>(Channel.CONFLATED)
+
+    private var closed = false
+
+    /**
+     * 写入状态，可以在任意线程调用，关闭后写入的状态被忽略
+     */
+    fun offer(state: DownloadResultState) {
+        synchronized(queue) {
+            if (closed) return
+            if (state is DownloadResultState.Progress && queue.lastOrNull() is DownloadResultState.Progress) {
+                queue[queue.lastIndex] = state
+            } else {
+                queue.addLast(state)
+            }
+        }
+        signal.trySend(Unit)
+    }
+
+    /**
+     * 不再写入，drainTo 发送完剩余的状态后返回
+     */
+    fun close() {
+        synchronized(queue) {
+            closed = true
+        }
+        signal.trySend(Unit)
+    }
+
+    /**
+     * 按顺序发送缓冲中的状态，直到 [close]
+     */
+    suspend fun drainTo(send: suspend (DownloadResultState) -> Unit) {
+        while (true) {
+            var finished = false
+            val state = synchronized(queue) {
+                queue.removeFirstOrNull().also { if (it == null) finished = closed }
+            }
+            when {
+                state != null -> send(state)
+                finished -> return
+                else -> signal.receive()
+            }
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.maxvision.mvvm.ext.download
+
+import android.os.SystemClock
+import com.maxvision.mvvm.ext.util.logi
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.asStateFlow
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 下载性能统计
+ * 每个下载记录首字节时间、吞吐量（指数加权平均）、续传/实际下载的字节数、重试次数和停顿时间，
+ * 同时汇总所有正在进行的下载，计算总吞吐量和预计剩余时间，可用于对比 CDN、调整并发数
+ *
+ * 使用示例：
+ * ```kotlin
+ * DownLoadTelemetry.summaryFlow.collect { summary ->
+ *     _speed.value = FileTool.bytes2kb(summary.throughput) + "/s"
+ * }
+ * // 输出到日志
+ * DownLoadTelemetry.dump()
+ * ```
+ */
+object DownLoadTelemetry {
+
+    /** 吞吐量采样间隔(ms)，同时是汇总状态的最小更新间隔 */
+    private const val SAMPLE_INTERVAL = 500L
+
+    /** 两次读取间隔超过该时间(ms)计为停顿 */
+    private const val STALL_THRESHOLD = 1000L
+
+    /** 指数加权平均的权重，越大越偏向最近的速度 */
+    private const val EWMA_ALPHA = 0.3
+
+    /**
+     * 单个下载的统计
+     * @param key String 下载标识
+     * @param ttfbMs Long 发出请求到收到第一个字节的时间(ms)，还没有收到时为 -1
+     * @param throughput Long 吞吐量（字节/秒，指数加权平均）
+     * @param resumedBytes Long 开始时已经下载的字节数（断点续传）
+     * @param fetchedBytes Long 本次实际从网络读取的字节数
+     * @param currentBytes Long 文件当前已下载的字节数
+     * @param totalBytes Long 文件总长度，未知时为 -1
+     * @param retries Int 重试次数（包括被抢占后重新排队、远程文件变化后从头下载）
+     * @param stallMs Long 累计停顿时间(ms)
+     * @param elapsedMs Long 开始下载到现在的时间(ms)
+     */
+    data class Stats(
+        val key: String,
+        val ttfbMs: Long,
+        val throughput: Long,
+        val resumedBytes: Long,
+        val fetchedBytes: Long,
+        val currentBytes: Long,
+        val totalBytes: Long,
+        val retries: Int,
+        val stallMs: Long,
+        val elapsedMs: Long
+    ) {
+
+        /** 预计剩余时间(ms)，无法估计时为 -1 */
+        val etaMs: Long
+            get() = if (totalBytes < 0 || throughput <= 0) -1L else (totalBytes - currentBytes).coerceAtLeast(0) * 1000 / throughput
+    }
+
+    /**
+     * 所有正在进行的下载的汇总
+     * @param downloads List<Stats> 各个下载的统计
+     * @param throughput Long 总吞吐量（字节/秒）
+     * @param remainingBytes Long 已知长度的下载剩余的总字节数
+     * @param etaMs Long 预计剩余时间(ms)，无法估计时为 -1
+     */
+    data class Summary(
+        val downloads: List<Stats> = emptyList(),
+        val throughput: Long = 0,
+        val remainingBytes: Long = 0,
+        val etaMs: Long = -1
+    )
+
+    /**
+     * 单个下载的记录，分段下载时多个分段同时写入
+     */
+    internal class Recorder(val key: String, resumedBytes: Long) {
+        private val startTime = SystemClock.elapsedRealtime()
+        private var requestTime = startTime
+        private var ttfbMs = -1L
+        private var ewma = 0.0
+        private var resumedBytes = resumedBytes
+        private var fetchedBytes = 0L
+        private var currentBytes = resumedBytes
+        private var totalBytes = -1L
+        private var retries = 0
+        private var stallMs = 0L
+        private var lastReadTime = 0L
+        private var sampleTime = startTime
+        private var sampleBytes = 0L
+
+        /**
+         * 发出请求，之后收到的第一个字节计算首字节时间
+         */
+        @Synchronized
+        fun onRequest(currentBytes: Long) {
+            requestTime = SystemClock.elapsedRealtime()
+            lastReadTime = 0L
+            this.currentBytes = currentBytes
+        }
+
+        @Synchronized
+        fun onTotal(totalBytes: Long) {
+            this.totalBytes = totalBytes
+        }
+
+        @Synchronized
+        fun onRetry() {
+            retries++
+        }
+
+        /**
+         * 丢弃已下载的部分，从头下载
+         */
+        @Synchronized
+        fun onRestart() {
+            retries++
+            resumedBytes = 0
+            currentBytes = 0
+        }
+
+        /**
+         * 读取到数据，到了采样时间时更新汇总
+         */
+        fun onRead(bytes: Int) {
+            //更新汇总时会读取其他下载的记录，不能持有自己的锁
+            if (sample(bytes)) {
+                publish(false)
+            }
+        }
+
+        /**
+         * @return Boolean 是否到了采样时间
+         */
+        @Synchronized
+        private fun sample(bytes: Int): Boolean {
+            val now = SystemClock.elapsedRealtime()
+            if (ttfbMs < 0) {
+                ttfbMs = now - requestTime
+            }
+            if (lastReadTime > 0 && now - lastReadTime >= STALL_THRESHOLD) {
+                stallMs += now - lastReadTime
+            }
+            lastReadTime = now
+            fetchedBytes += bytes
+            currentBytes += bytes
+            sampleBytes += bytes
+            val duration = now - sampleTime
+            if (duration < SAMPLE_INTERVAL) {
+                return false
+            }
+            val speed = sampleBytes * 1000.0 / duration
+            ewma = if (ewma == 0.0) speed else EWMA_ALPHA * speed + (1 - EWMA_ALPHA) * ewma
+            sampleTime = now
+            sampleBytes = 0
+            return true
+        }
+
+        @Synchronized
+        fun snapshot(): Stats {
+            val now = SystemClock.elapsedRealtime()
+            //长时间没有数据时吞吐量按停顿衰减，避免一直显示停顿前的速度
+            val idle = if (lastReadTime > 0) now - lastReadTime else 0L
+            val throughput = if (idle >= STALL_THRESHOLD) 0L else ewma.toLong()
+            return Stats(
+                key,
+                ttfbMs,
+                throughput,
+                resumedBytes,
+                fetchedBytes,
+                currentBytes,
+                totalBytes,
+                retries,
+                stallMs,
+                now - startTime
+            )
+        }
+    }
+
+    private val recorderMap: ConcurrentHashMap<String, Recorder> = ConcurrentHashMap()
+
+    private var lastPublishTime = 0L
+
+    private val _summaryFlow = MutableStateFlow(Summary())
+
+    /**
+     * 所有正在进行的下载的汇总，最多每 [SAMPLE_INTERVAL] 更新一次
+     */
+    val summaryFlow: StateFlow<Summary> = _summaryFlow.asStateFlow()
+
+    /**
+     * 获取单个下载的统计
+     * @return Stats? 没有正在进行时返回 null
+     */
+    fun get(key: String): Stats? {
+        return recorderMap[key]?.snapshot()
+    }
+
+    /**
+     * 把当前所有下载的统计输出到日志
+     */
+    fun dump() {
+        val summary = summarize()
+        "download telemetry: ${summary.downloads.size} active, ${FileTool.bytes2kb(summary.throughput)}/s, remaining ${FileTool.bytes2kb(summary.remainingBytes)}, eta ${summary.etaMs}ms".logi()
+        summary.downloads.forEach { log(it) }
+    }
+
+    /**
+     * 开始传输（包括被抢占后重新开始），返回该下载的记录
+     * @param currentBytes Long 已经下载的字节数
+     */
+    internal fun begin(key: String, currentBytes: Long): Recorder {
+        val recorder = recorderMap.getOrPut(key) { Recorder(key, currentBytes) }
+        recorder.onRequest(currentBytes)
+        publish(true)
+        return recorder
+    }
+
+    internal fun recorder(key: String): Recorder? {
+        return recorderMap[key]
+    }
+
+    /**
+     * 下载结束（完成、失败、暂停、取消），输出统计到日志
+     */
+    internal fun finish(key: String) {
+        val recorder = recorderMap.remove(key) ?: return
+        log(recorder.snapshot())
+        publish(true)
+    }
+
+    private fun log(stats: Stats) {
+        with(stats) {
+            "download telemetry [$key] ttfb ${ttfbMs}ms, ${FileTool.bytes2kb(throughput)}/s, resumed ${FileTool.bytes2kb(resumedBytes)}, fetched ${FileTool.bytes2kb(fetchedBytes)}, $currentBytes/$totalBytes, retries $retries, stall ${stallMs}ms, elapsed ${elapsedMs}ms, eta ${etaMs}ms".logi()
+        }
+    }
+
+    private fun summarize(): Summary {
+        val downloads = recorderMap.values.map { it.snapshot() }
+        val throughput = downloads.sumOf { it.throughput }
+        val remaining = downloads.filter { it.totalBytes >= 0 }.sumOf { (it.totalBytes - it.currentBytes).coerceAtLeast(0) }
+        val eta = if (throughput > 0) remaining * 1000 / throughput else -1L
+        return Summary(downloads, throughput, remaining, eta)
+    }
+
+    private fun publish(force: Boolean) {
+        val now = SystemClock.elapsedRealtime()
+        synchronized(this) {
+            if (!force && now - lastPublishTime < SAMPLE_INTERVAL) return
+            lastPublishTime = now
+        }
+        _summaryFlow.value = summarize()
+    }
+}
@@ -0,0 +1,124 @@
+package com.maxvision.mvvm.ext.download
+
+import okhttp3.Headers
+import retrofit2.Response
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 断点续传校验
+ * 开始下载时记录 ETag / Last-Modified / 文件总长度，续传时通过 If-Range 带回给服务器：
+ * 远程文件没有变化时服务器返回 206 从断点继续，变化了返回 200 整个文件，此时从头下载，
+ * 避免把新旧两个文件拼在一起
+ */
+internal object DownLoadValidator {
+
+    /**
+     * 续传校验信息
+     * @param etag String? ETag
+     * @param lastModified String? Last-Modified
+     * @param totalLength Long 文件总长度，未知时为 -1
+     */
+    class Meta(val etag: String?, val lastModified: String?, val totalLength: Long) {
+
+        /**
+         * If-Range 的值，弱 ETag 不能用于 If-Range，改用 Last-Modified
+         */
+        val ifRange: String?
+            get() = etag?.takeIf { !it.startsWith("W/") } ?: lastModified
+
+        /**
+         * 远程文件是否和记录的一致
+         * @param strict Boolean false 时只比较文件总长度，用于多镜像（各个 CDN 的 ETag 不同）
+         */
+        fun matches(other: Meta, strict: Boolean = true): Boolean {
+            if (!strict) return totalLength < 0 || other.totalLength < 0 || totalLength == other.totalLength
+            if (etag != null && other.etag != null) return etag == other.etag
+            if (lastModified != null && other.lastModified != null && lastModified != other.lastModified) return false
+            return totalLength < 0 || other.totalLength < 0 || totalLength == other.totalLength
+        }
+    }
+
+    /**
+     * 从响应头读取校验信息
+     */
+    fun fromHeaders(headers: Headers): Meta {
+        val totalLength = parseContentRange(headers["Content-Range"])?.second
+            ?: headers["Content-Length"]?.toLongOrNull()
+            ?: -1L
+        return Meta(headers["ETag"], headers["Last-Modified"], totalLength)
+    }
+
+    /**
+     * 记录开始下载时的校验信息
+     */
+    fun save(key: String, meta: Meta) {
+        clear(key)
+        meta.etag?.let { DownLoadJournal.putString(etagKey(key), it) }
+        meta.lastModified?.let { DownLoadJournal.putString(lastModifiedKey(key), it) }
+        DownLoadJournal.putLong(totalLengthKey(key), meta.totalLength)
+    }
+
+    /**
+     * 读取记录的校验信息
+     * @return Meta? 旧版本没有记录时返回 null
+     */
+    fun get(key: String): Meta? {
+        if (!DownLoadJournal.contains(totalLengthKey(key))) {
+            return null
+        }
+        return Meta(
+            DownLoadJournal.getString(etagKey(key), null),
+            DownLoadJournal.getString(lastModifiedKey(key), null),
+            DownLoadJournal.getLong(totalLengthKey(key), -1L)
+        )
+    }
+
+    /**
+     * 续传请求是否真的从断点继续
+     * @param currentLength Long 已下载的长度
+     * @param response Response 带 Range / If-Range 的响应
+     * @param strict Boolean 见 [Meta.matches]
+     * @return Boolean false 时需要从头下载
+     */
+    fun isResumed(key: String, currentLength: Long, response: Response<*>, strict: Boolean = true): Boolean {
+        if (response.code() != 206) {
+            return false
+        }
+        val range = parseContentRange(response.headers()["Content-Range"]) ?: return false
+        if (range.first != currentLength) {
+            return false
+        }
+        return get(key)?.matches(fromHeaders(response.headers()), strict) ?: true
+    }
+
+    fun clear(key: String) {
+        DownLoadJournal.remove(etagKey(key))
+        DownLoadJournal.remove(lastModifiedKey(key))
+        DownLoadJournal.remove(totalLengthKey(key))
+    }
+
+    /**
+     * 解析 Content-Range: bytes start-end/total
+     * @return Pair<Long, Long>? 起始位置和总长度（未知时为 -1）
+     */
+    private fun parseContentRange(value: String?): Pair<Long, Long>? {
+        if (value == null || !value.startsWith("bytes ")) {
+            return null
+        }
+        val slash = value.indexOf('/')
+        val dash = value.indexOf('-')
+        if (slash == -1 || dash == -1 || dash > slash) {
+            return null
+        }
+        val start = value.substring(6, dash).trim().toLongOrNull() ?: return null
+        val total = value.substring(slash + 1).trim().toLongOrNull() ?: -1L
+        return start to total
+    }
+
+    private fun etagKey(key: String) = "${key}_etag"
+
+    private fun lastModifiedKey(key: String) = "${key}_last_modified"
+
+    private fun totalLengthKey(key: String) = "${key}_total_length"
+}
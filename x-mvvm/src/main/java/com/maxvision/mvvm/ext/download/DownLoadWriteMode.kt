@@ -0,0 +1,21 @@
+package com.maxvision.mvvm.ext.download
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 下载写入文件的方式
+ */
+enum class DownLoadWriteMode {
+
+    /**
+     * 直接内存缓冲 + FileChannel.write，不占用额外的虚拟地址空间，默认方式
+     */
+    CHANNEL,
+
+    /**
+     * 按固定大小的窗口滑动映射文件（mmap），每次只映射 [FileTool.mapWindowSize] 大小
+     * 换窗口后旧窗口要等 GC 回收才解除映射，GC 不及时时大文件在 32 位设备上仍可能占用较多地址空间，
+     * 所以不作为默认方式
+     */
+    MAPPED_WINDOW
+}
@@ -16,12 +16,12 @@ sealed class DownloadResultState {
 
         fun onPause(): DownloadResultState = Pause
 
-        fun onError(errorMsg: String): DownloadResultState = Error(errorMsg)
+        fun onError(errorMsg: String, throwable: Throwable? = null): DownloadResultState = Error(errorMsg, throwable)
     }
 
     object Pending : DownloadResultState()
     data class Progress(val soFarBytes: Long, val totalBytes: Long,val progress: Int) : DownloadResultState()
     data class Success(val filePath: String,val totalBytes:Long) : DownloadResultState()
     object Pause : DownloadResultState()
-    data class Error(val errorMsg: String) : DownloadResultState()
+    data class Error(val errorMsg: String, val throwable: Throwable? = null) : DownloadResultState()
 }
\ No newline at end of file
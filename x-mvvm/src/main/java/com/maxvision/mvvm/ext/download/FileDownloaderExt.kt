@@ -1,6 +1,11 @@
 package com.maxvision.mvvm.ext.download
 
+import android.os.SystemClock
 import androidx.lifecycle.MutableLiveData
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
 import com.maxvision.mvvm.ext.download.DownloadResultState
 import com.maxvision.mvvm.ext.download.OnDownLoadListener
 
@@ -39,4 +44,110 @@ fun downLoadExt(downloadResultState: MutableLiveData<DownloadResultState>): OnDo
     }
 }
 
+/**
+ * 把下载回调转换为 [DownloadResultState] 发送出去，不切换线程
+ * 进度按 [progressInterval] 采样，间隔内只保留最新的进度，间隔结束时由定时器补发，
+ * 下载停顿时最后的进度也不会被一直压住
+ * @param send (DownloadResultState) -> Unit 发送状态
+ * @param progressInterval Long 进度最小间隔(ms)
+ * @param scope CoroutineScope 补发进度的定时器所在的作用域
+ */
+internal class FlowDownLoadListener(
+    private val send: (DownloadResultState) -> Unit,
+    private val progressInterval: Long,
+    private val scope: CoroutineScope
+) : OnDownLoadListener {
+
+    private var lastProgressTime = 0L
+
+    //采样间隔内还没有发送的进度
+    private var pendingProgress: DownloadResultState? = null
+
+    //补发 pendingProgress 的定时器
+    private var flushJob: Job? = null
+
+    override fun onDownLoadPrepare(key: String) {
+        send(DownloadResultState.onPending())
+    }
+
+    override fun onDownLoadError(key: String, throwable: Throwable) {
+        sendPendingProgress()
+        send(DownloadResultState.onError(throwable.message ?: "下载错误", throwable))
+    }
+
+    @Synchronized
+    override fun onDownLoadSuccess(key: String, path: String, size: Long) {
+        cancelFlush()
+        pendingProgress = null
+        send(DownloadResultState.onSuccess(path, size))
+    }
+
+    override fun onDownLoadPause(key: String) {
+        sendPendingProgress()
+        send(DownloadResultState.onPause())
+    }
+
+    @Synchronized
+    override fun onUpdate(key: String, progress: Int, read: Long, count: Long, done: Boolean) {
+        val state = DownloadResultState.onProgress(read, count, progress)
+        val now = SystemClock.elapsedRealtime()
+        if (done || now - lastProgressTime >= progressInterval) {
+            cancelFlush()
+            lastProgressTime = now
+            pendingProgress = null
+            send(state)
+        } else {
+            pendingProgress = state
+            if (flushJob == null) {
+                val wait = progressInterval - (now - lastProgressTime)
+                flushJob = scope.launch {
+                    delay(wait)
+                    flush()
+                }
+            }
+        }
+    }
+
+    @Synchronized
+    private fun flush() {
+        flushJob = null
+        pendingProgress?.let {
+            lastProgressTime = SystemClock.elapsedRealtime()
+            send(it)
+        }
+        pendingProgress = null
+    }
+
+    @Synchronized
+    private fun sendPendingProgress() {
+        cancelFlush()
+        pendingProgress?.let { send(it) }
+        pendingProgress = null
+    }
 
+    private fun cancelFlush() {
+        flushJob?.cancel()
+        flushJob = null
+    }
+}
+
+/**
+ * 把 [DownloadResultState] 分发给 [OnDownLoadListener]，用于兼容回调方式
+ * @param key String 下载标识
+ * @param loadListener OnDownLoadListener
+ */
+internal fun DownloadResultState.dispatchTo(key: String, loadListener: OnDownLoadListener) {
+    when (this) {
+        is DownloadResultState.Pending -> loadListener.onDownLoadPrepare(key)
+        is DownloadResultState.Progress -> loadListener.onUpdate(
+            key,
+            progress,
+            soFarBytes,
+            totalBytes,
+            soFarBytes == totalBytes
+        )
+        is DownloadResultState.Success -> loadListener.onDownLoadSuccess(key, filePath, totalBytes)
+        is DownloadResultState.Pause -> loadListener.onDownLoadPause(key)
+        is DownloadResultState.Error -> loadListener.onDownLoadError(key, throwable ?: Throwable(errorMsg))
+    }
+}
@@ -1,13 +1,19 @@
 package com.maxvision.mvvm.ext.download
 
+import android.system.ErrnoException
+import android.system.Os
 import com.maxvision.mvvm.base.BaseApplication.Companion.app
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.withContext
+import com.maxvision.mvvm.ext.util.logi
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.ensureActive
 import okhttp3.ResponseBody
 import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
 import java.io.RandomAccessFile
-import java.nio.channels.FileChannel
 import java.text.DecimalFormat
+import kotlin.coroutines.coroutineContext
 
 /**
  * 作者　: cl
@@ -25,6 +31,39 @@ object FileTool {
     //定义KB的计算常量
     private const val KB = 1024
 
+    //总长度未知时每下载多少字节记录一次断点
+    private const val UNKNOWN_LENGTH_CHECKPOINT = 1024 * 1024L
+
+    /**
+     * 读写缓冲区大小
+     */
+    var bufferSize = 64 * KB
+
+    /**
+     * 写入文件的方式
+     */
+    var writeMode = DownLoadWriteMode.CHANNEL
+
+    /**
+     * [DownLoadWriteMode.MAPPED_WINDOW] 每次映射的窗口大小，32位设备不宜过大
+     */
+    var mapWindowSize = 8 * MB
+
+    /**
+     * 检查存储空间时额外预留的字节数
+     */
+    var freeSpaceMargin = 16L * MB
+
+    /**
+     * 边下载边解压时解压后的总字节数上限，超过时按格式错误处理，防止压缩炸弹
+     */
+    var maxUnzipBytes = 4L * GB
+
+    /**
+     * 边下载边解压时的条目数上限
+     */
+    var maxUnzipEntries = 10_000
+
     /**
      * 下载文件到本地
      * @param key String
@@ -33,6 +72,8 @@ object FileTool {
      * @param currentLength Long
      * @param responseBody ResponseBody
      * @param loadListener OnDownLoadListener
+     * @param checksum DownLoadChecksum? 下载校验，为空时不校验
+     * @param checksumHeader String? 响应头中携带的摘要
      */
     suspend fun downToFile(
         key: String,
@@ -40,27 +81,44 @@ object FileTool {
         saveName: String,
         currentLength: Long,
         responseBody: ResponseBody,
-        loadListener: OnDownLoadListener
+        loadListener: OnDownLoadListener,
+        checksum: DownLoadChecksum? = null,
+        checksumHeader: String? = null
     ) {
-        val filePath = getFilePath(savePath, saveName)
         try {
-            if (filePath == null) {
-                withContext(Dispatchers.Main) {
-                    loadListener.onDownLoadError(key, Throwable("mkdirs file [$savePath]  error"))
-                }
-                DownLoadPool.remove(key)
-                return
-            }
-            //保存到文件
-            saveToFile(currentLength, responseBody, filePath, key, loadListener)
+            transferToFile(key, savePath, saveName, currentLength, responseBody, loadListener, checksum, checksumHeader)
+        } catch (e: CancellationException) {
+            //暂停或者被抢占，保留断点
+            throw e
         } catch (throwable: Throwable) {
-            withContext(Dispatchers.Main) {
-                loadListener.onDownLoadError(key, throwable)
-            }
+            loadListener.onDownLoadError(key, throwable)
             DownLoadPool.remove(key)
         }
     }
 
+    /**
+     * 同 [downToFile]，但是出错时直接抛出，由调用方决定是否重试
+     */
+    internal suspend fun transferToFile(
+        key: String,
+        savePath: String,
+        saveName: String,
+        currentLength: Long,
+        responseBody: ResponseBody,
+        loadListener: OnDownLoadListener,
+        checksum: DownLoadChecksum?,
+        checksumHeader: String?
+    ) {
+        val filePath = getFilePath(savePath, saveName)
+        if (filePath == null) {
+            responseBody.close()
+            throw Throwable("mkdirs file [$savePath]  error")
+        }
+        val verifier = checksum?.createVerifier(key, currentLength, checksumHeader, filePath)
+        //保存到文件
+        saveToFile(currentLength, responseBody, filePath, key, loadListener, verifier)
+    }
+
     /**
      *
      * @param currentLength Long
@@ -75,53 +133,93 @@ object FileTool {
         filePath: String,
         key: String,
         loadListener: OnDownLoadListener
+    ) {
+        saveToFile(currentLength, responseBody, filePath, key, loadListener, null)
+    }
+
+    /**
+     * 保存到文件，同时计算摘要
+     * @param verifier Verifier? 边写入边计算摘要
+     */
+    internal suspend fun saveToFile(
+        currentLength: Long,
+        responseBody: ResponseBody,
+        filePath: String,
+        key: String,
+        loadListener: OnDownLoadListener,
+        verifier: DownLoadChecksum.Verifier?
     ) {
         val fileLength =
             getFileLength(currentLength, responseBody)
-        val inputStream = responseBody.byteStream()
-        val accessFile = RandomAccessFile(File(filePath), "rwd")
-        val channel = accessFile.channel
-        val mappedBuffer = channel.map(
-            FileChannel.MapMode.READ_WRITE,
-            currentLength,
-            fileLength - currentLength
-        )
-        val buffer = ByteArray(1024 * 4)
+        //空间不足时在开始读取前失败
+        try {
+            if (currentLength == 0L) {
+                DownLoadJournal.markStarted(key)
+            }
+            //从头下载时不需要保留链接的内容
+            unlinkShared(File(filePath), keepContent = currentLength > 0)
+            preallocate(File(filePath), fileLength)
+        } catch (throwable: Throwable) {
+            responseBody.close()
+            throw throwable
+        }
+        val buffer = ByteArray(bufferSize)
+        val recorder = DownLoadTelemetry.recorder(key)
+        recorder?.onTotal(fileLength)
         var len = 0
-        var lastProgress = 0
+        var lastProgress = -1
+        var lastCheckpoint = currentLength
         var currentSaveLength = currentLength //当前的长度
 
-        while (inputStream.read(buffer).also { len = it } != -1) {
-            mappedBuffer.put(buffer, 0, len)
-            currentSaveLength += len
-
-            val progress = (currentSaveLength.toFloat() / fileLength * 100).toInt() // 计算百分比
-            if (lastProgress != progress) {
-                lastProgress = progress
-                //记录已经下载的长度
-                ShareDownLoadUtil.putLong(key, currentSaveLength)
-                withContext(Dispatchers.Main) {
-                    loadListener.onUpdate(
-                        key,
-                        progress,
-                        currentSaveLength,
-                        fileLength,
-                        currentSaveLength == fileLength
-                    )
-                }
+        responseBody.byteStream().use { inputStream ->
+            DownLoadFileWriter.open(writeMode, File(filePath), currentLength).use { writer ->
+                while (inputStream.read(buffer).also { len = it } != -1) {
+                    writer.write(buffer, 0, len)
+                    verifier?.update(buffer, 0, len)
+                    currentSaveLength += len
+                    recorder?.onRead(len)
+                    //限速
+                    DownLoadRateLimiter.acquire(key, len)
 
-                if (currentSaveLength == fileLength) {
-                    withContext(Dispatchers.Main) {
-                        loadListener.onDownLoadSuccess(key, filePath,fileLength)
+                    //总长度未知时按字节数记录断点，进度为 -1
+                    val progress = if (fileLength > 0) (currentSaveLength.toFloat() / fileLength * 100).toInt() else -1
+                    val checkpoint = if (fileLength > 0) lastProgress != progress else currentSaveLength - lastCheckpoint >= UNKNOWN_LENGTH_CHECKPOINT
+                    if (checkpoint) {
+                        coroutineContext.ensureActive()
+                        lastProgress = progress
+                        lastCheckpoint = currentSaveLength
+                        //记录已经下载的长度和摘要中间状态
+                        writer.flush()
+                        verifier?.save()
+                        DownLoadJournal.putLong(key, currentSaveLength)
+                        loadListener.onUpdate(
+                            key,
+                            progress,
+                            currentSaveLength,
+                            fileLength,
+                            currentSaveLength == fileLength
+                        )
                     }
-                    DownLoadPool.remove(key)
+                }
+                //读到结尾并且长度正确时才截断，提前结束时保留预分配的长度
+                if (fileLength <= 0 || currentSaveLength == fileLength) {
+                    writer.complete()
                 }
             }
         }
 
-        inputStream.close()
-        accessFile.close()
-        channel.close()
+        if (fileLength > 0 && currentSaveLength != fileLength) {
+            throw IOException("unexpected end of stream $currentSaveLength/$fileLength")
+        }
+        val mismatch = verifier?.verify()
+        if (mismatch != null) {
+            //校验失败的文件不能保留，否则下次会被当作已下载完成
+            File(filePath).delete()
+            loadListener.onDownLoadError(key, mismatch)
+        } else {
+            loadListener.onDownLoadSuccess(key, filePath, currentSaveLength)
+        }
+        DownLoadPool.remove(key)
     }
 
     /**
@@ -133,8 +231,12 @@ object FileTool {
     fun getFileLength(
         currentLength: Long,
         responseBody: ResponseBody
-    ) =
-        if (currentLength == 0L) responseBody.contentLength() else currentLength + responseBody.contentLength()
+    ) = when {
+        //chunked 等未知长度的响应
+        responseBody.contentLength() < 0 -> -1L
+        currentLength == 0L -> responseBody.contentLength()
+        else -> currentLength + responseBody.contentLength()
+    }
 
 
     /**
@@ -166,6 +268,134 @@ object FileTool {
     }
 
 
+    /**
+     * 检查可用空间，不足时抛出 [DownLoadException.InsufficientSpace]
+     * @param dir File 保存的目录
+     * @param required Long 还需要写入的字节数，未知时不检查
+     */
+    fun checkFreeSpace(dir: File, required: Long) {
+        if (required < 0) {
+            return
+        }
+        val available = dir.usableSpace
+        //目录不存在等情况 usableSpace 返回 0，交给后续写入时报错
+        if (available > 0 && available < required + freeSpaceMargin) {
+            throw DownLoadException.InsufficientSpace(dir.path, required + freeSpaceMargin, available)
+        }
+    }
+
+    /**
+     * 检查空间后预分配文件，减少写入过程中的碎片和磁盘写满
+     * 优先使用 fallocate 真正分配磁盘块，不支持时退回 setLength
+     * @param file File 保存的文件
+     * @param length Long 文件总长度，未知时不处理
+     */
+    fun preallocate(file: File, length: Long) {
+        if (length <= 0) {
+            return
+        }
+        unlinkShared(file)
+        RandomAccessFile(file, "rw").use { accessFile ->
+            val current = accessFile.length()
+            if (current >= length) {
+                return
+            }
+            checkFreeSpace(file.absoluteFile.parentFile ?: file, length - current)
+            try {
+                Os.posix_fallocate(accessFile.fd, current, length - current)
+            } catch (e: ErrnoException) {
+                "fallocate ${file.path} failed ${e.message}".logi()
+            }
+            if (accessFile.length() != length) {
+                accessFile.setLength(length)
+            }
+        }
+    }
+
+    /**
+     * 把已下载完成的文件链接到新路径，不支持硬链接时（跨分区等）复制
+     * 链接后两个路径共用同一份数据，下载再次写入其中一个路径前会先通过 [unlinkShared] 分开
+     * @param source File 已下载完成的文件
+     * @param target File 新的保存路径
+     */
+    fun linkOrCopy(source: File, target: File) {
+        if (link(source, target)) {
+            return
+        }
+        "link ${source.path} failed, copy instead".logi()
+        if (target.exists()) {
+            target.delete()
+        }
+        copy(source, target)
+    }
+
+    /**
+     * 把文件硬链接到新路径，先链接到临时路径再替换，失败时目标路径上原来的文件保持不变
+     * @return Boolean 不支持硬链接（跨分区、FUSE 等）时返回 false
+     */
+    fun link(source: File, target: File): Boolean {
+        target.parentFile?.let { createFile(it.path) }
+        val temp = File(target.path + ".link")
+        temp.delete()
+        try {
+            Os.link(source.path, temp.path)
+        } catch (e: ErrnoException) {
+            return false
+        }
+        if (!temp.renameTo(target)) {
+            temp.delete()
+            return false
+        }
+        return true
+    }
+
+    /**
+     * 原地写入文件前调用，保证文件没有其他硬链接
+     * 通过 [linkOrCopy] 链接的路径（相同地址去重、下载缓存）共用同一份数据，
+     * 直接写入会同时改掉其他路径上已经完成的文件
+     * @param file File 将要写入的文件
+     * @param keepContent Boolean 是否保留已有内容（续传时），false 时直接删除
+     */
+    fun unlinkShared(file: File, keepContent: Boolean = true) {
+        val links = try {
+            Os.stat(file.path).st_nlink
+        } catch (e: ErrnoException) {
+            //文件不存在
+            return
+        }
+        if (links <= 1) {
+            return
+        }
+        "${file.path} 有 $links 个链接 写入前分开".logi()
+        if (!keepContent) {
+            file.delete()
+            return
+        }
+        //复制一份后替换，其他路径仍然指向原来的数据
+        val temp = File(file.path + ".unlink")
+        try {
+            copy(file, temp)
+            if (!temp.renameTo(file)) {
+                throw IOException("rename ${temp.path} failed")
+            }
+        } finally {
+            temp.delete()
+        }
+    }
+
+    private fun copy(source: File, target: File) {
+        FileInputStream(source).channel.use { input ->
+            FileOutputStream(target).channel.use { output ->
+                val size = input.size()
+                var position = 0L
+                while (position < size) {
+                    position += input.transferTo(position, size - position, output)
+                }
+            }
+        }
+    }
+
+
     /**
      * 格式化小数
      * @param bytes Long
@@ -0,0 +1,275 @@
+package com.maxvision.mvvm.ext.download
+
+import java.nio.ByteBuffer
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 可保存中间状态的摘要计算（MD5 / SHA-256）
+ * java.security.MessageDigest 无法导出中间状态，断点续传时只能从头重新计算，
+ * 这里自己实现分组计算，中间状态可以和断点一起记录，续传时直接恢复
+ */
+internal abstract class ResumableDigest(val algorithm: String, initState: IntArray) {
+
+    companion object {
+        private const val BLOCK_SIZE = 64
+
+        /**
+         * 根据算法名创建，不支持时返回 null
+         */
+        fun create(algorithm: String): ResumableDigest? {
+            return when (algorithm.uppercase().replace("-", "")) {
+                "MD5" -> Md5()
+                "SHA256" -> Sha256()
+                else -> null
+            }
+        }
+    }
+
+    private val initState = initState.copyOf()
+    private val state = initState.copyOf()
+    private val block = ByteArray(BLOCK_SIZE)
+    private var blockLength = 0
+
+    /** 已经计算的字节数 */
+    var byteCount = 0L
+        private set
+
+    /** 长度字段、摘要结果是否大端 */
+    protected abstract val bigEndian: Boolean
+
+    protected abstract fun processBlock(state: IntArray, block: ByteArray, offset: Int)
+
+    fun update(input: ByteArray, offset: Int, length: Int) {
+        var position = offset
+        var remaining = length
+        byteCount += length
+        if (blockLength > 0) {
+            val count = minOf(remaining, BLOCK_SIZE - blockLength)
+            System.arraycopy(input, position, block, blockLength, count)
+            blockLength += count
+            position += count
+            remaining -= count
+            if (blockLength == BLOCK_SIZE) {
+                processBlock(state, block, 0)
+                blockLength = 0
+            }
+        }
+        while (remaining >= BLOCK_SIZE) {
+            processBlock(state, input, position)
+            position += BLOCK_SIZE
+            remaining -= BLOCK_SIZE
+        }
+        if (remaining > 0) {
+            System.arraycopy(input, position, block, 0, remaining)
+            blockLength = remaining
+        }
+    }
+
+    /**
+     * 计算摘要，不影响当前状态，之后可以继续 update
+     * @return String 小写 hex
+     */
+    fun digestHex(): String {
+        val finalState = state.copyOf()
+        val tail = ByteArray(if (blockLength < 56) BLOCK_SIZE else BLOCK_SIZE * 2)
+        System.arraycopy(block, 0, tail, 0, blockLength)
+        tail[blockLength] = 0x80.toByte()
+        val bitLength = byteCount * 8
+        for (i in 0 until 8) {
+            val shift = if (bigEndian) (7 - i) * 8 else i * 8
+            tail[tail.size - 8 + i] = (bitLength ushr shift).toByte()
+        }
+        var offset = 0
+        while (offset < tail.size) {
+            processBlock(finalState, tail, offset)
+            offset += BLOCK_SIZE
+        }
+        val builder = StringBuilder(finalState.size * 8)
+        finalState.forEach { word ->
+            val value = if (bigEndian) word else Integer.reverseBytes(word)
+            builder.append(String.format("%08x", value))
+        }
+        return builder.toString()
+    }
+
+    fun reset() {
+        initState.copyInto(state)
+        blockLength = 0
+        byteCount = 0
+    }
+
+    /**
+     * 导出中间状态：[byteCount][state...][blockLength][block]
+     */
+    fun saveState(): ByteArray {
+        val buffer = ByteBuffer.allocate(8 + state.size * 4 + 4 + blockLength)
+        buffer.putLong(byteCount)
+        state.forEach { buffer.putInt(it) }
+        buffer.putInt(blockLength)
+        buffer.put(block, 0, blockLength)
+        return buffer.array()
+    }
+
+    /**
+     * 恢复中间状态
+     * @return Boolean 数据不合法时返回 false 且不修改当前状态
+     */
+    fun restoreState(bytes: ByteArray): Boolean {
+        val buffer = ByteBuffer.wrap(bytes)
+        if (bytes.size < 8 + state.size * 4 + 4) return false
+        val count = buffer.long
+        val words = IntArray(state.size) { buffer.int }
+        val length = buffer.int
+        if (length !in 0 until BLOCK_SIZE || buffer.remaining() != length || count % BLOCK_SIZE != length.toLong()) {
+            return false
+        }
+        byteCount = count
+        words.copyInto(state)
+        buffer.get(block, 0, length)
+        blockLength = length
+        return true
+    }
+
+    private class Md5 : ResumableDigest(
+        "MD5",
+        intArrayOf(0x67452301, 0xefcdab89.toInt(), 0x98badcfe.toInt(), 0x10325476)
+    ) {
+
+        override val bigEndian = false
+
+        private val words = IntArray(16)
+
+        override fun processBlock(state: IntArray, block: ByteArray, offset: Int) {
+            for (i in 0 until 16) {
+                val p = offset + i * 4
+                words[i] = (block[p].toInt() and 0xff) or
+                        ((block[p + 1].toInt() and 0xff) shl 8) or
+                        ((block[p + 2].toInt() and 0xff) shl 16) or
+                        ((block[p + 3].toInt() and 0xff) shl 24)
+            }
+            var a = state[0]
+            var b = state[1]
+            var c = state[2]
+            var d = state[3]
+            for (i in 0 until 64) {
+                val f: Int
+                val g: Int
+                when (i / 16) {
+                    0 -> {
+                        f = (b and c) or (b.inv() and d)
+                        g = i
+                    }
+                    1 -> {
+                        f = (d and b) or (d.inv() and c)
+                        g = (5 * i + 1) % 16
+                    }
+                    2 -> {
+                        f = b xor c xor d
+                        g = (3 * i + 5) % 16
+                    }
+                    else -> {
+                        f = c xor (b or d.inv())
+                        g = (7 * i) % 16
+                    }
+                }
+                val temp = d
+                d = c
+                c = b
+                b += Integer.rotateLeft(a + f + K[i] + words[g], S[i])
+                a = temp
+            }
+            state[0] += a
+            state[1] += b
+            state[2] += c
+            state[3] += d
+        }
+
+        companion object {
+            private val S = intArrayOf(
+                7, 12, 17, 22, 7, 12, 17, 22, 7, 12, 17, 22, 7, 12, 17, 22,
+                5, 9, 14, 20, 5, 9, 14, 20, 5, 9, 14, 20, 5, 9, 14, 20,
+                4, 11, 16, 23, 4, 11, 16, 23, 4, 11, 16, 23, 4, 11, 16, 23,
+                6, 10, 15, 21, 6, 10, 15, 21, 6, 10, 15, 21, 6, 10, 15, 21
+            )
+            private val K = IntArray(64) { i ->
+                (Math.abs(Math.sin(i + 1.0)) * 4294967296.0).toLong().toInt()
+            }
+        }
+    }
+
+    private class Sha256 : ResumableDigest(
+        "SHA-256",
+        intArrayOf(
+            0x6a09e667, 0xbb67ae85.toInt(), 0x3c6ef372, 0xa54ff53a.toInt(),
+            0x510e527f, 0x9b05688c.toInt(), 0x1f83d9ab, 0x5be0cd19
+        )
+    ) {
+
+        override val bigEndian = true
+
+        private val words = IntArray(64)
+
+        override fun processBlock(state: IntArray, block: ByteArray, offset: Int) {
+            for (i in 0 until 16) {
+                val p = offset + i * 4
+                words[i] = ((block[p].toInt() and 0xff) shl 24) or
+                        ((block[p + 1].toInt() and 0xff) shl 16) or
+                        ((block[p + 2].toInt() and 0xff) shl 8) or
+                        (block[p + 3].toInt() and 0xff)
+            }
+            for (i in 16 until 64) {
+                val w15 = words[i - 15]
+                val w2 = words[i - 2]
+                val s0 = Integer.rotateRight(w15, 7) xor Integer.rotateRight(w15, 18) xor (w15 ushr 3)
+                val s1 = Integer.rotateRight(w2, 17) xor Integer.rotateRight(w2, 19) xor (w2 ushr 10)
+                words[i] = words[i - 16] + s0 + words[i - 7] + s1
+            }
+            var a = state[0]
+            var b = state[1]
+            var c = state[2]
+            var d = state[3]
+            var e = state[4]
+            var f = state[5]
+            var g = state[6]
+            var h = state[7]
+            for (i in 0 until 64) {
+                val s1 = Integer.rotateRight(e, 6) xor Integer.rotateRight(e, 11) xor Integer.rotateRight(e, 25)
+                val ch = (e and f) xor (e.inv() and g)
+                val temp1 = h + s1 + ch + K[i] + words[i]
+                val s0 = Integer.rotateRight(a, 2) xor Integer.rotateRight(a, 13) xor Integer.rotateRight(a, 22)
+                val maj = (a and b) xor (a and c) xor (b and c)
+                val temp2 = s0 + maj
+                h = g
+                g = f
+                f = e
+                e = d + temp1
+                d = c
+                c = b
+                b = a
+                a = temp1 + temp2
+            }
+            state[0] += a
+            state[1] += b
+            state[2] += c
+            state[3] += d
+            state[4] += e
+            state[5] += f
+            state[6] += g
+            state[7] += h
+        }
+
+        companion object {
+            private val K = longArrayOf(
+                0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+                0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+                0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+                0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+                0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+                0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+                0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+                0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+            ).let { table -> IntArray(table.size) { table[it].toInt() } }
+        }
+    }
+}
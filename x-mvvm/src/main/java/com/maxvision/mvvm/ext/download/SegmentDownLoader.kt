@@ -0,0 +1,266 @@
+package com.maxvision.mvvm.ext.download
+
+import com.maxvision.mvvm.ext.util.logi
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import okhttp3.Headers
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.coroutines.coroutineContext
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 多连接分段下载
+ * 先通过 HEAD 探测 Content-Length / Accept-Ranges，服务器支持断点时把文件切成 N 段，
+ * 在同一个 OkHttpClient 上并发请求各自的 Range，使用 FileChannel 按位置写入各自的区域
+ */
+internal object SegmentDownLoader {
+
+    /** 最大分段数，超过 OkHttp 单 host 并发数没有意义 */
+    const val MAX_SEGMENT_COUNT = 8
+
+    /** 小于该大小的文件不分段 */
+    private const val MIN_SEGMENT_SIZE = 1024 * 1024L
+
+    /**
+     * 分段信息
+     * @param index Int 段序号
+     * @param start Long 起始位置（包含）
+     * @param end Long 结束位置（包含）
+     * @param current Long 当前已写入的位置
+     */
+    class Segment(val index: Int, val start: Long, val end: Long, @Volatile var current: Long) {
+        val isDone: Boolean
+            get() = current > end
+    }
+
+    /**
+     * 探测结果
+     * @param url String 探测的地址，多镜像时为竞速选中的镜像
+     * @param totalLength Long 文件总长度
+     * @param headers Headers 响应头
+     */
+    class Probe(val url: String, val totalLength: Long, val headers: Headers)
+
+    /**
+     * 探测服务器是否支持分段下载
+     * @param key String 标识
+     * @param urls List<String> 下载地址，多个镜像时同时探测，使用最先响应的
+     * @return Probe? 不支持分段时返回 null
+     */
+    suspend fun probe(key: String, service: DownLoadService, urls: List<String>): Probe? {
+        return try {
+            val (url, response) = DownLoadMirrors.race(key, urls) { service.probeFile(it) }
+            val acceptRanges = response.headers()["Accept-Ranges"]
+            val contentLength = response.headers()["Content-Length"]?.toLongOrNull() ?: -1L
+            if (response.isSuccessful && acceptRanges.equals("bytes", true) && contentLength > 0) {
+                Probe(url, contentLength, response.headers())
+            } else {
+                null
+            }
+        } catch (throwable: Throwable) {
+            coroutineContext.ensureActive()
+            "probe ${urls.first()} error ${throwable.message}".logi()
+            null
+        }
+    }
+
+    /**
+     * 实际分段数，文件太小时减少分段
+     */
+    fun segmentCount(totalLength: Long, segmentCount: Int): Int {
+        val maxBySize = (totalLength / MIN_SEGMENT_SIZE).toInt().coerceAtLeast(1)
+        return segmentCount.coerceIn(1, MAX_SEGMENT_COUNT).coerceAtMost(maxBySize)
+    }
+
+    /**
+     * 分段下载
+     * @param key String 标识
+     * @param service DownLoadService 下载服务
+     * @param url String 下载地址
+     * @param filePath String 保存的完整路径
+     * @param totalLength Long 文件总长度
+     * @param segmentCount Int 分段数
+     * @param resume Boolean 是否从上次记录的分段位置继续
+     * @param ifRange String? 分段请求带上的 If-Range，多镜像时为空
+     * @param loadListener OnDownLoadListener
+     * @param checksum DownLoadChecksum? 下载校验，分段是乱序写入的，所以在全部完成后计算
+     * @param checksumHeader String? 响应头中携带的摘要
+     */
+    suspend fun downLoad(
+        key: String,
+        service: DownLoadService,
+        url: String,
+        filePath: String,
+        totalLength: Long,
+        segmentCount: Int,
+        resume: Boolean,
+        ifRange: String?,
+        loadListener: OnDownLoadListener,
+        checksum: DownLoadChecksum? = null,
+        checksumHeader: String? = null
+    ) = coroutineScope {
+        if (!resume) {
+            DownLoadJournal.markStarted(key)
+        }
+        //不能写入其他路径共用的数据，空间不足时在开始请求分段前失败
+        FileTool.unlinkShared(File(filePath), keepContent = resume)
+        FileTool.preallocate(File(filePath), totalLength)
+        val segments = split(key, totalLength, segmentCount, resume)
+        val accessFile = RandomAccessFile(File(filePath), "rw")
+        try {
+            if (accessFile.length() != totalLength) {
+                accessFile.setLength(totalLength)
+            }
+            val channel = accessFile.channel
+            val downloaded = AtomicLong(segments.sumOf { it.current - it.start })
+            val progressLock = Mutex()
+            var lastProgress = (downloaded.get() * 100 / totalLength).toInt()
+            val recorder = DownLoadTelemetry.recorder(key)
+            recorder?.onTotal(totalLength)
+            //没有续传时记录的已下载字节数需要更正
+            recorder?.onRequest(downloaded.get())
+            "segment download $key total $totalLength segments ${segments.size} resumed ${downloaded.get()}".logi()
+
+            segments.filter { !it.isDone }.map { segment ->
+                async(Dispatchers.IO) {
+                    fetchSegment(key, service, url, ifRange, channel, segment) { len ->
+                        recorder?.onRead(len)
+                        val current = downloaded.addAndGet(len.toLong())
+                        val progress = (current * 100 / totalLength).toInt()
+                        if (progress != lastProgress) {
+                            progressLock.withLock {
+                                if (progress > lastProgress) {
+                                    lastProgress = progress
+                                    //记录各段已经下载的位置
+                                    saveSegments(key, segments, current)
+                                    loadListener.onUpdate(key, progress, current, totalLength, current == totalLength)
+                                }
+                            }
+                        }
+                    }
+                }
+            }.awaitAll()
+            channel.force(false)
+        } finally {
+            accessFile.close()
+        }
+        clearSegments(key)
+        val mismatch = checksum?.createVerifier(key, 0, checksumHeader, filePath)?.let {
+            it.hashFile(filePath, totalLength)
+            it.verify()
+        }
+        if (mismatch != null) {
+            File(filePath).delete()
+            loadListener.onDownLoadError(key, mismatch)
+        } else {
+            loadListener.onDownLoadSuccess(key, filePath, totalLength)
+        }
+        DownLoadPool.remove(key)
+    }
+
+    /**
+     * 下载单个分段并写入到对应位置
+     */
+    private suspend fun fetchSegment(
+        key: String,
+        service: DownLoadService,
+        url: String,
+        ifRange: String?,
+        channel: FileChannel,
+        segment: Segment,
+        onRead: suspend (Int) -> Unit
+    ) {
+        val response = service.downloadFile("bytes=${segment.current}-${segment.end}", url, ifRange)
+        val responseBody = response.body()
+            ?: throw IOException("segment ${segment.index} responseBody is null")
+        if (response.code() != 206) {
+            responseBody.close()
+            //探测之后远程文件又发生了变化时同样返回 200，下次重新探测后从头下载
+            throw IOException("segment ${segment.index} range not supported or file changed, code ${response.code()}")
+        }
+        responseBody.byteStream().use { inputStream ->
+            val buffer = ByteArray(FileTool.bufferSize)
+            val byteBuffer = ByteBuffer.wrap(buffer)
+            var len: Int
+            while (inputStream.read(buffer).also { len = it } != -1) {
+                coroutineContext.ensureActive()
+                //防止服务器返回超出请求区间的数据
+                len = len.toLong().coerceAtMost(segment.end - segment.current + 1).toInt()
+                byteBuffer.clear()
+                byteBuffer.limit(len)
+                var position = segment.current
+                while (byteBuffer.hasRemaining()) {
+                    position += channel.write(byteBuffer, position)
+                }
+                segment.current += len
+                //各分段共用同一个下载的限速
+                DownLoadRateLimiter.acquire(key, len)
+                onRead(len)
+                if (segment.isDone) break
+            }
+        }
+        if (!segment.isDone) {
+            throw IOException("segment ${segment.index} closed early at ${segment.current}/${segment.end}")
+        }
+    }
+
+    /**
+     * 切分文件，续传时读取上次记录的各段位置
+     */
+    private fun split(key: String, totalLength: Long, segmentCount: Int, resume: Boolean): List<Segment> {
+        val savedCount = DownLoadJournal.getInt(countKey(key), 0)
+        val count = if (resume && savedCount > 0) savedCount else segmentCount(totalLength, segmentCount)
+        if (!resume || savedCount != count) {
+            clearSegments(key)
+        }
+        val segmentSize = totalLength / count
+        return (0 until count).map { index ->
+            val start = index * segmentSize
+            val end = if (index == count - 1) totalLength - 1 else start + segmentSize - 1
+            val current = if (resume) DownLoadJournal.getLong(segmentKey(key, index), start) else start
+            Segment(index, start, end, current.coerceIn(start, end + 1))
+        }
+    }
+
+    private fun saveSegments(key: String, segments: List<Segment>, downloaded: Long) {
+        DownLoadJournal.putInt(countKey(key), segments.size)
+        segments.forEach {
+            DownLoadJournal.putLong(segmentKey(key, it.index), it.current)
+        }
+        //总进度同样记录在 key 下，保持与单线程下载一致的"文件未完成"判断
+        DownLoadJournal.putLong(key, downloaded)
+    }
+
+    /**
+     * 是否有分段下载的记录
+     */
+    fun hasSegments(key: String): Boolean {
+        return DownLoadJournal.getInt(countKey(key), 0) > 0
+    }
+
+    /**
+     * 清除分段记录
+     */
+    fun clearSegments(key: String) {
+        val count = DownLoadJournal.getInt(countKey(key), 0)
+        for (index in 0 until count) {
+            DownLoadJournal.remove(segmentKey(key, index))
+        }
+        DownLoadJournal.remove(countKey(key))
+    }
+
+    private fun countKey(key: String) = "${key}_segment_count"
+
+    private fun segmentKey(key: String, index: Int) = "${key}_segment_$index"
+}
@@ -0,0 +1,259 @@
+package com.maxvision.mvvm.ext.download
+
+import com.maxvision.mvvm.ext.util.logi
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.job
+import okhttp3.ResponseBody
+import okio.Pipe
+import okio.buffer
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.util.zip.ZipException
+import java.util.zip.ZipInputStream
+import kotlin.coroutines.coroutineContext
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 边下载边解压 ZIP
+ * 网络读取和解压在两个协程中同时进行，中间通过有界的 [Pipe] 传递数据：
+ * 解压跟不上时网络读取等待，不需要先把整个压缩包保存到磁盘，磁盘占用只有解压后的文件
+ *
+ * ZIP 条目的起始位置需要读取中央目录才能知道，流式解压无法按条目 Range 续传，
+ * 所以续传时重新下载数据流，已经解压完成的条目直接跳过不再写入磁盘
+ *
+ * 解压先写入暂存目录 [stagingDir]，压缩包校验通过后才移动到解压目录，校验失败时整个删除；
+ * 解压后的总大小和条目数超过 [FileTool.maxUnzipBytes]、[FileTool.maxUnzipEntries] 时按格式错误处理
+ */
+internal object ZipStreamExtractor {
+
+    /** 网络和解压之间的缓冲大小 */
+    private const val PIPE_BUFFER_SIZE = 1024 * 1024L
+
+    /**
+     * 下载并解压
+     * @param key String 下载标识
+     * @param responseBody ResponseBody 从头开始的响应
+     * @param targetDir File 解压目录
+     * @param loadListener OnDownLoadListener
+     * @param checksum DownLoadChecksum? 压缩包的校验，续传时同样从头读取，可以直接计算整个数据流
+     * @param checksumHeader String? 响应头中携带的摘要
+     */
+    suspend fun extract(
+        key: String,
+        responseBody: ResponseBody,
+        targetDir: File,
+        loadListener: OnDownLoadListener,
+        checksum: DownLoadChecksum?,
+        checksumHeader: String?
+    ) {
+        val staging = stagingDir(targetDir)
+        //暂存目录不在了（例如被清理），已经解压的条目也不在了，需要全部重新解压
+        val skipCount = if (staging.exists()) DownLoadJournal.getInt(entriesKey(key), 0) else 0
+        if (!staging.exists() && !staging.mkdirs()) {
+            responseBody.close()
+            throw Throwable("mkdirs file [${staging.path}]  error")
+        }
+        try {
+            //解压后的大小未知，至少需要压缩包大小的空间
+            FileTool.checkFreeSpace(staging, responseBody.contentLength())
+        } catch (throwable: Throwable) {
+            responseBody.close()
+            throw throwable
+        }
+        val pipe = Pipe(PIPE_BUFFER_SIZE)
+        val totalLength = responseBody.contentLength()
+        val digest = checksum?.createDigest()
+        DownLoadTelemetry.recorder(key)?.onTotal(totalLength)
+        "unzip $key to ${targetDir.path} skip $skipCount entries".logi()
+        val extracted = try {
+            extractTo(key, responseBody, pipe, staging, skipCount, loadListener, digest, totalLength)
+        } catch (e: DownLoadException) {
+            //压缩包格式错误不会重试，已经解压的内容不可信
+            staging.deleteRecursively()
+            DownLoadJournal.remove(entriesKey(key))
+            throw e
+        }
+        val mismatch = digest?.let { checksum.check(it.digestHex(), checksum.expected ?: checksumHeader) }
+        if (mismatch != null) {
+            //解压的内容来自校验失败的数据，全部删除，解压目录没有被写入过
+            staging.deleteRecursively()
+            DownLoadJournal.remove(entriesKey(key))
+            throw mismatch
+        }
+        publish(staging, targetDir)
+        DownLoadJournal.remove(entriesKey(key))
+        "unzip $key finished, $extracted entries".logi()
+        loadListener.onDownLoadSuccess(key, targetDir.path, totalLength)
+        DownLoadPool.remove(key)
+    }
+
+    /**
+     * 同时读取网络和解压到暂存目录
+     * @return Int 解压的条目数
+     */
+    private suspend fun extractTo(
+        key: String,
+        responseBody: ResponseBody,
+        pipe: Pipe,
+        staging: File,
+        skipCount: Int,
+        loadListener: OnDownLoadListener,
+        digest: ResumableDigest?,
+        totalLength: Long
+    ): Int {
+        val recorder = DownLoadTelemetry.recorder(key)
+        return coroutineScope {
+            //暂停、出错时解除阻塞在 Pipe 上的线程
+            coroutineContext.job.invokeOnCompletion { pipe.cancel() }
+            val unzip = async(Dispatchers.IO) {
+                try {
+                    unzip(key, pipe, staging, skipCount)
+                } finally {
+                    pipe.source.close()
+                }
+            }
+            responseBody.byteStream().use { inputStream ->
+                pipe.sink.buffer().use { sink ->
+                    val buffer = ByteArray(FileTool.bufferSize)
+                    var read = 0L
+                    var lastProgress = -1
+                    var len: Int
+                    while (inputStream.read(buffer).also { len = it } != -1) {
+                        coroutineContext.ensureActive()
+                        sink.write(buffer, 0, len)
+                        sink.emit()
+                        digest?.update(buffer, 0, len)
+                        read += len
+                        recorder?.onRead(len)
+                        DownLoadRateLimiter.acquire(key, len)
+                        val progress = if (totalLength > 0) (read * 100 / totalLength).toInt() else -1
+                        if (progress != lastProgress) {
+                            lastProgress = progress
+                            loadListener.onUpdate(key, progress, read, totalLength, read == totalLength)
+                        }
+                    }
+                    if (totalLength > 0 && read != totalLength) {
+                        throw IOException("unexpected end of stream $read/$totalLength")
+                    }
+                }
+            }
+            unzip.await()
+        }
+    }
+
+    /**
+     * 把暂存目录的内容移动到解压目录，解压目录不存在或为空时整个目录重命名，
+     * 否则逐个移动，同名的文件被替换，同名的目录合并
+     */
+    private fun publish(staging: File, targetDir: File) {
+        if (!targetDir.exists() || targetDir.list()?.isEmpty() == true) {
+            targetDir.delete()
+            targetDir.parentFile?.mkdirs()
+            if (staging.renameTo(targetDir)) {
+                return
+            }
+        }
+        merge(staging, targetDir)
+        staging.deleteRecursively()
+    }
+
+    private fun merge(source: File, target: File) {
+        target.mkdirs()
+        source.listFiles()?.forEach { child ->
+            val dest = File(target, child.name)
+            if (child.isDirectory && dest.isDirectory) {
+                merge(child, dest)
+            } else {
+                if (dest.exists()) dest.deleteRecursively()
+                if (!child.renameTo(dest)) {
+                    throw IOException("rename ${child.path} to ${dest.path} failed")
+                }
+            }
+        }
+    }
+
+    /**
+     * 从 Pipe 中读取并解压
+     * 压缩包格式错误抛出 [DownLoadException.InvalidArchive]，不是 IOException，不会进入网络错误的重试
+     * @return Int 解压的条目数
+     */
+    private suspend fun unzip(key: String, pipe: Pipe, targetDir: File, skipCount: Int): Int {
+        try {
+            return unzipEntries(key, pipe, targetDir, skipCount)
+        } catch (e: ZipException) {
+            throw DownLoadException.InvalidArchive(e.message ?: "zip format error", e)
+        }
+    }
+
+    private suspend fun unzipEntries(key: String, pipe: Pipe, targetDir: File, skipCount: Int): Int {
+        val canonicalDir = targetDir.canonicalPath + File.separator
+        var index = 0
+        //续传时已经解压的部分也计入总大小
+        var totalBytes = if (skipCount > 0) targetDir.walk().filter { it.isFile }.sumOf { it.length() } else 0L
+        val input = pipe.source.buffer().inputStream()
+        ZipInputStream(input).use { zip ->
+            val buffer = ByteArray(FileTool.bufferSize)
+            while (true) {
+                val entry = zip.nextEntry ?: break
+                coroutineContext.ensureActive()
+                if (index >= FileTool.maxUnzipEntries) {
+                    throw DownLoadException.InvalidArchive("more than ${FileTool.maxUnzipEntries} entries")
+                }
+                val file = File(targetDir, entry.name)
+                //防止条目名中的 ../ 写到解压目录外
+                if (!file.canonicalPath.startsWith(canonicalDir) && file.canonicalPath + File.separator != canonicalDir) {
+                    throw DownLoadException.InvalidArchive("zip entry ${entry.name} is outside of target dir")
+                }
+                if (index < skipCount) {
+                    //上次已经解压完成，只读取不写入
+                    index++
+                    continue
+                }
+                if (entry.isDirectory) {
+                    file.mkdirs()
+                } else {
+                    file.parentFile?.mkdirs()
+                    FileOutputStream(file).use { outputStream ->
+                        var len: Int
+                        while (zip.read(buffer).also { len = it } != -1) {
+                            totalBytes += len
+                            if (totalBytes > FileTool.maxUnzipBytes) {
+                                throw DownLoadException.InvalidArchive("uncompressed size exceeds ${FileTool.maxUnzipBytes}")
+                            }
+                            outputStream.write(buffer, 0, len)
+                        }
+                    }
+                }
+                index++
+                DownLoadJournal.putInt(entriesKey(key), index)
+            }
+            //条目之后还有中央目录，读完才能让网络读取正常结束
+            while (input.read(buffer) != -1) {
+                coroutineContext.ensureActive()
+            }
+        }
+        return index
+    }
+
+    /**
+     * 解压目录对应的暂存目录，和解压目录在同一个目录下，完成时可以直接重命名
+     */
+    fun stagingDir(targetDir: File): File {
+        return File(targetDir.parentFile, "${targetDir.name}.unzipping")
+    }
+
+    /**
+     * 清除解压记录
+     */
+    fun clear(key: String) {
+        DownLoadJournal.remove(entriesKey(key))
+    }
+
+    /** 已经解压完成的条目数 */
+    private fun entriesKey(key: String) = "${key}_unzip_entries"
+}
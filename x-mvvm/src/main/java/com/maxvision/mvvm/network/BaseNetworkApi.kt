@@ -3,22 +3,58 @@ package com.maxvision.mvvm.network
 import com.maxvision.mvvm.util.HttpsCerUtils
 import okhttp3.OkHttpClient
 import retrofit2.Retrofit
+import java.util.concurrent.ConcurrentHashMap
 
 /**
  * 作者　: cl
  * 时间　: 2023/04/12
  * 描述　: 网络请求构建器基类
+ * OkHttpClient、Retrofit、接口代理都只创建一次：
+ * http / 忽略证书两种模式都从同一个根客户端 newBuilder 派生，共用连接池、调度器和 TLS 会话；
+ * Retrofit 按 baseUrl + 模式缓存，接口代理按接口类型 + baseUrl + 模式缓存
  */
 abstract class BaseNetworkApi {
 
+    /**
+     * Retrofit 缓存的 key
+     * @param baseUrl String baseUrl
+     * @param type Boolean 是否忽略证书
+     */
+    private data class RetrofitKey(val baseUrl: String, val type: Boolean)
+
+    /**
+     * 接口代理缓存的 key
+     */
+    private data class ServiceKey(val serviceClass: Class<*>, val retrofitKey: RetrofitKey)
+
+    private val retrofitMap: ConcurrentHashMap<RetrofitKey, Retrofit> = ConcurrentHashMap()
+
+    private val serviceMap: ConcurrentHashMap<ServiceKey, Any> = ConcurrentHashMap()
 
     fun <T> getApi(serviceClass: Class<T>, baseUrl: String,type: Boolean): T {
+        val retrofitKey = RetrofitKey(baseUrl, type)
+        val service = serviceMap.computeIfAbsent(ServiceKey(serviceClass, retrofitKey)) {
+            getRetrofit(retrofitKey).create(serviceClass) as Any
+        }
+        return serviceClass.cast(service)
+    }
+
+    /**
+     * 获取 OkHttpClient，可以用于 Retrofit 以外的请求，同样共用连接池
+     * @param type Boolean 是否忽略证书
+     */
+    fun getOkHttpClient(type: Boolean): OkHttpClient {
         //根据type判断使用哪个okHttpClient
-        val okHttpClient = if (type) okHttpClientHttps else okHttpClient
-        val retrofitBuilder = Retrofit.Builder()
-            .baseUrl(baseUrl)
-            .client(okHttpClient)
-        return setRetrofitBuilder(retrofitBuilder).build().create(serviceClass)
+        return if (type) okHttpClientHttps else okHttpClient
+    }
+
+    private fun getRetrofit(key: RetrofitKey): Retrofit {
+        return retrofitMap.computeIfAbsent(key) {
+            val retrofitBuilder = Retrofit.Builder()
+                .baseUrl(key.baseUrl)
+                .client(getOkHttpClient(key.type))
+            setRetrofitBuilder(retrofitBuilder).build()
+        }
     }
 
     /**
@@ -34,27 +70,27 @@ abstract class BaseNetworkApi {
     abstract fun setRetrofitBuilder(builder: Retrofit.Builder): Retrofit.Builder
 
     /**
-     * 配置http
+     * 配置http，同时是其他模式的根客户端
      */
-    private val okHttpClient: OkHttpClient
-        get() {
-            var builder = OkHttpClient.Builder()
+    private val okHttpClient: OkHttpClient by lazy {
+        var builder = OkHttpClient.Builder()
 //            var builder = RetrofitUrlManager.getInstance().with(OkHttpClient.Builder())
-            builder = setHttpClientBuilder(builder)
-            return builder.build()
-        }
+        builder = setHttpClientBuilder(builder)
+        builder.build()
+    }
 
 
 
     /**
-     * 配置https,忽略证书模式
+     * 配置https,忽略证书模式，从根客户端派生，只替换证书校验
      */
-    private val okHttpClientHttps: OkHttpClient
-        get() {
-            var builder = HttpsCerUtils.trustAllCertificateClient.newBuilder()
-            builder = setHttpClientBuilder(builder)
-            return builder.build()
-        }
+    private val okHttpClientHttps: OkHttpClient by lazy {
+        val trustAllClient = HttpsCerUtils.trustAllCertificateClient
+        val builder = okHttpClient.newBuilder()
+            .hostnameVerifier(trustAllClient.hostnameVerifier)
+        trustAllClient.x509TrustManager?.let { builder.sslSocketFactory(trustAllClient.sslSocketFactory, it) }
+        builder.build()
+    }
 }
 
 
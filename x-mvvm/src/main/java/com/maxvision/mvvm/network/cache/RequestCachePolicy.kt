@@ -0,0 +1,41 @@
+package com.maxvision.mvvm.network.cache
+
+import com.google.gson.reflect.TypeToken
+import java.lang.reflect.Type
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: requestFlow 的缓存策略（stale-while-revalidate）
+ * 1. 缓存时间不超过 [ttlMs]：直接使用缓存，不请求网络
+ * 2. 超过 [ttlMs] 但不超过 [ttlMs] + [maxStaleMs]：先使用缓存，后台请求网络，数据变化时再发射一次
+ * 3. 更旧或者没有缓存：请求网络，和不使用缓存相同
+ *
+ * 使用示例：
+ * ```kotlin
+ * fun getArticleList() = requestFlow(
+ *     cachePolicy = RequestCachePolicy.of<ApiPagerResponse<ArrayList<ArticleResponse>>>("article_list_0", ttlMs = 30_000)
+ * ) {
+ *     apiService.getArticleList(0)
+ * }
+ * ```
+ * @param key String 缓存的 key，不同参数的请求需要不同的 key
+ * @param type Type 数据类型，用于从磁盘缓存解析，一般通过 [of] 创建
+ * @param ttlMs Long 缓存有效期(ms)，期间不请求网络，为 0 时每次都重新验证
+ * @param maxStaleMs Long 过期后仍然可以先展示的时间(ms)
+ */
+data class RequestCachePolicy<T>(
+    val key: String,
+    val type: Type,
+    val ttlMs: Long = 0,
+    val maxStaleMs: Long = 24 * 60 * 60 * 1000L
+) {
+
+    companion object {
+        inline fun <reified T> of(
+            key: String,
+            ttlMs: Long = 0,
+            maxStaleMs: Long = 24 * 60 * 60 * 1000L
+        ): RequestCachePolicy<T> = RequestCachePolicy(key, object : TypeToken<T>() {}.type, ttlMs, maxStaleMs)
+    }
+}
@@ -0,0 +1,169 @@
+package com.maxvision.mvvm.network.cache
+
+import com.google.gson.Gson
+import com.maxvision.mvvm.base.BaseApplication.Companion.app
+import com.maxvision.mvvm.ext.util.loge
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.security.MessageDigest
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: requestFlow 的两级缓存
+ * 内存中按 LRU 保存解析后的对象，再次使用时不需要解析；磁盘中保存 JSON，进程重启后仍然可用
+ *
+ * 注意：内存中的对象在写入方和所有读取方之间共享，拿到的数据必须当作只读，
+ * 需要修改时先复制（例如 data class 的 copy、toMutableList），否则会改掉缓存中的数据
+ * 数据是否变化通过 JSON 比较，见 [RequestCachePolicy]
+ */
+object ResponseCache {
+
+    /**
+     * 缓存项
+     * @param value Any? 解析后的对象，多个调用方共享，只读
+     * @param json String 序列化的数据
+     * @param time Long 写入时间
+     */
+    class Entry(val value: Any?, val json: String, val time: Long) {
+
+        fun age(): Long = System.currentTimeMillis() - time
+    }
+
+    /**
+     * 序列化使用的 Gson，需要和 Retrofit 的转换器配置一致
+     */
+    var gson: Gson = Gson()
+
+    /**
+     * 内存中最多保存的数量
+     */
+    var maxMemoryEntries = 64
+
+    /**
+     * 磁盘缓存的最大字节数
+     */
+    var maxDiskBytes = 10L * 1024 * 1024
+
+    /**
+     * 磁盘缓存目录
+     */
+    var directory: File = File(app.cacheDir, "response_cache")
+
+    private val memory = object : LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Entry>?): Boolean {
+            return size > maxMemoryEntries
+        }
+    }
+
+    /**
+     * 读取缓存，内存中没有时从磁盘读取并解析，返回的对象是共享的，只读
+     * @return Entry? 没有缓存或解析失败时返回 null
+     */
+    fun get(policy: RequestCachePolicy<*>): Entry? {
+        synchronized(memory) {
+            memory[policy.key]?.let { return it }
+        }
+        return try {
+            val (time, json) = read(policy.key) ?: return null
+            val entry = Entry(gson.fromJson<Any?>(json, policy.type), json, time)
+            synchronized(memory) {
+                memory[policy.key] = entry
+            }
+            entry
+        } catch (e: Exception) {
+            //数据类型变化等原因无法解析时丢弃
+            "response cache ${policy.key} read error ${e.message}".loge()
+            remove(policy.key)
+            null
+        }
+    }
+
+    /**
+     * 写入缓存，[value] 直接保存在内存中，写入后不能再修改
+     * @return Boolean 数据是否和之前的缓存不同
+     * @throws Exception 无法序列化时抛出 Gson 的异常
+     */
+    fun put(policy: RequestCachePolicy<*>, value: Any?): Boolean {
+        val json = gson.toJson(value, policy.type)
+        val entry = Entry(value, json, System.currentTimeMillis())
+        val old = synchronized(memory) {
+            memory.put(policy.key, entry)
+        }?.json ?: try {
+            read(policy.key)?.second
+        } catch (e: IOException) {
+            null
+        }
+        write(policy.key, entry)
+        return old != json
+    }
+
+    fun remove(key: String) {
+        synchronized(memory) {
+            memory.remove(key)
+        }
+        fileOf(key).delete()
+    }
+
+    fun clear() {
+        synchronized(memory) {
+            memory.clear()
+        }
+        directory.listFiles()?.forEach { it.delete() }
+    }
+
+    /**
+     * 读取磁盘缓存
+     * @return Pair<Long, String>? 写入时间和 JSON
+     */
+    private fun read(key: String): Pair<Long, String>? {
+        val file = fileOf(key)
+        if (!file.exists()) {
+            return null
+        }
+        return DataInputStream(FileInputStream(file).buffered()).use { input ->
+            input.readLong() to input.readBytes().toString(Charsets.UTF_8)
+        }
+    }
+
+    private fun write(key: String, entry: Entry) {
+        val file = fileOf(key)
+        val temp = File(file.path + ".tmp")
+        try {
+            directory.mkdirs()
+            DataOutputStream(FileOutputStream(temp).buffered()).use { output ->
+                output.writeLong(entry.time)
+                output.write(entry.json.toByteArray(Charsets.UTF_8))
+            }
+            if (!temp.renameTo(file)) {
+                throw IOException("rename ${temp.path} failed")
+            }
+            trim()
+        } catch (e: IOException) {
+            "response cache $key write error ${e.message}".loge()
+            temp.delete()
+        }
+    }
+
+    /**
+     * 超过 [maxDiskBytes] 时删除最早写入的
+     */
+    private fun trim() {
+        val files = directory.listFiles()?.sortedBy { it.lastModified() } ?: return
+        var total = files.sumOf { it.length() }
+        for (file in files) {
+            if (total <= maxDiskBytes) break
+            total -= file.length()
+            file.delete()
+        }
+    }
+
+    private fun fileOf(key: String): File {
+        val digest = MessageDigest.getInstance("MD5").digest(key.toByteArray(Charsets.UTF_8))
+        return File(directory, digest.joinToString("") { "%02x".format(it) })
+    }
+}
@@ -1,39 +1,137 @@
 package com.maxvision.mvvm.network.interceptor
 
 import com.maxvision.mvvm.base.BaseApplication.Companion.app
+import com.maxvision.mvvm.network.manager.NetworkStateManager
+import com.maxvision.mvvm.network.route.RoutePolicy
 import com.maxvision.mvvm.util.NetworkUtil
-import okhttp3.CacheControl
+import okhttp3.Cache
 import okhttp3.Interceptor
+import okhttp3.OkHttpClient
+import okhttp3.Request
 import okhttp3.Response
+import retrofit2.Invocation
+import java.io.IOException
 
 /**
  * 作者　: cl
- * 时间　: 2023/04/12
- * 描述　: 缓存拦截器
- * @param day 缓存天数 默认7天
+ * 时间　: 2026/10/17
+ * 描述　: 缓存拦截器，按接口上的 [HttpCache] 使用 OkHttp 的磁盘缓存
+ * 由两部分组成，需要通过 [install] 一起添加：
+ * 1. 应用拦截器：离线时只读缓存；请求失败时按 staleIfError 改为读取过期的缓存
+ * 2. 网络拦截器：改写服务器返回的 Cache-Control，让 OkHttp 按接口的策略保存缓存
+ * 没有标注 [HttpCache] 也没有在 RouteTable 中设置缓存的接口不做任何处理
+ *
+ * 使用示例：
+ * ```kotlin
+ * override fun setHttpClientBuilder(builder: OkHttpClient.Builder): OkHttpClient.Builder {
+ *     CacheInterceptor.install(builder, Cache(File(app.cacheDir, "http_cache"), 10 * 1024 * 1024))
+ *     return builder
+ * }
+ * ```
  */
-class CacheInterceptor(var day: Int = 7) : Interceptor {
+class CacheInterceptor : Interceptor {
+
     override fun intercept(chain: Interceptor.Chain): Response {
-        var request = chain.request()
-        if (!NetworkUtil.isNetworkAvailable(app)) {
-            request = request.newBuilder()
-                .cacheControl(CacheControl.FORCE_CACHE)
-                .build()
+        val request = chain.request()
+        val policy = policyOf(request) ?: return chain.proceed(request)
+        //只判断一次网络状态
+        if (!isNetworkAvailable()) {
+            return chain.proceed(cacheOnly(request, if (policy.offlineOnly) Int.MAX_VALUE else policy.staleIfError))
         }
-        val response = chain.proceed(request)
-        if (!NetworkUtil.isNetworkAvailable(app)) {
-            val maxAge = 60 * 60
-            response.newBuilder()
-                .removeHeader("Pragma")
-                .header("Cache-Control", "public, max-age=$maxAge")
-                .build()
+        val networkRequest = if (policy.offlineOnly) {
+            //在线时跳过缓存，响应仍然会被保存，离线时使用
+            request.newBuilder().header("Cache-Control", "no-cache").build()
         } else {
-            val maxStale = 60 * 60 * 24 * day // tolerate 4-weeks stale
-            response.newBuilder()
+            request
+        }
+        if (policy.staleIfError <= 0) {
+            return chain.proceed(networkRequest)
+        }
+        val response = try {
+            chain.proceed(networkRequest)
+        } catch (e: IOException) {
+            if (chain.call().isCanceled()) throw e
+            return staleOrNull(chain, request, policy.staleIfError) ?: throw e
+        }
+        if (response.code < 500) {
+            return response
+        }
+        //再次请求前必须关闭之前的响应，错误页一般很小，读取到内存中
+        val errorResponse = response.newBuilder().body(response.peekBody(MAX_ERROR_BODY)).build()
+        response.close()
+        return staleOrNull(chain, request, policy.staleIfError) ?: errorResponse
+    }
+
+    /**
+     * 读取过期时间在 [maxStale] 以内的缓存
+     * @return Response? 没有可用的缓存时返回 null
+     */
+    private fun staleOrNull(chain: Interceptor.Chain, request: Request, maxStale: Int): Response? {
+        val cached = chain.proceed(cacheOnly(request, maxStale))
+        //没有可用的缓存时 OkHttp 返回 504
+        if (cached.code == 504) {
+            cached.close()
+            return null
+        }
+        return cached
+    }
+
+    /**
+     * 网络拦截器：按接口的策略改写响应的 Cache-Control
+     */
+    class NetworkInterceptor : Interceptor {
+        override fun intercept(chain: Interceptor.Chain): Response {
+            val request = chain.request()
+            val response = chain.proceed(request)
+            val policy = policyOf(request) ?: return response
+            if (!response.isSuccessful) {
+                return response
+            }
+            return response.newBuilder()
                 .removeHeader("Pragma")
-                .header("Cache-Control", "public, only-if-cached, max-stale=$maxStale")
+                .header("Cache-Control", "public, max-age=${policy.maxAge}")
                 .build()
         }
-        return response
     }
-}
\ No newline at end of file
+
+    companion object {
+
+        private const val MAX_ERROR_BODY = 64 * 1024L
+
+        /**
+         * 设置磁盘缓存并添加拦截器
+         * 应用拦截器应该在其他拦截器之前添加，离线读取缓存时不经过登录、日志等拦截器
+         */
+        fun install(builder: OkHttpClient.Builder, cache: Cache): OkHttpClient.Builder {
+            return builder
+                .cache(cache)
+                .addInterceptor(CacheInterceptor())
+                .addNetworkInterceptor(NetworkInterceptor())
+        }
+
+        /**
+         * 从 Retrofit 的 Invocation 读取接口的缓存策略，没有注解时使用 [RoutePolicy.cache]，只处理 GET
+         */
+        private fun policyOf(request: Request): HttpCache? {
+            if (request.method != "GET") {
+                return null
+            }
+            return request.tag(Invocation::class.java)?.method()?.getAnnotation(HttpCache::class.java)
+                ?: RoutePolicy.of(request)?.cache
+        }
+
+        private fun cacheOnly(request: Request, maxStale: Int): Request {
+            return request.newBuilder()
+                .header("Cache-Control", "only-if-cached, max-stale=$maxStale")
+                .build()
+        }
+
+        /**
+         * 优先使用网络状态监听的结果，没有注册监听时查询系统
+         */
+        private fun isNetworkAvailable(): Boolean {
+            return NetworkStateManager.instance.getCurrentState()?.isSuccess
+                ?: NetworkUtil.isNetworkAvailable(app)
+        }
+    }
+}
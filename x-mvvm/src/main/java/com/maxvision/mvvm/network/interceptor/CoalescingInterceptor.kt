@@ -0,0 +1,173 @@
+package com.maxvision.mvvm.network.interceptor
+
+import okhttp3.Interceptor
+import okhttp3.Request
+import okhttp3.Response
+import okhttp3.ResponseBody.Companion.toResponseBody
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 合并相同的并发请求
+ * 同时发出的相同 GET/HEAD 请求（方法、url 和 [keyHeaders] 中的请求头都相同）只请求一次网络，
+ * 响应体读取到内存后每个调用各自得到一份；请求失败时每个等待的调用各自收到一个包装了原异常的 IOException
+ *
+ * 响应体超过 [maxBodySize] 时不合并，第一个调用直接使用原响应，其他调用各自请求；
+ * 第一个调用被取消时其他调用各自重新请求，不会收到取消的异常。
+ * 等待的调用会占用 Dispatcher 的线程和每个主机的并发数，所以最多等待 [maxWaitMs]，超时后各自请求。
+ * 需要作为应用拦截器（addInterceptor）添加，单个请求可以通过 [NO_COALESCE] 请求头关闭
+ *
+ * 使用示例：
+ * ```kotlin
+ * override fun setHttpClientBuilder(builder: OkHttpClient.Builder): OkHttpClient.Builder {
+ *     builder.addInterceptor(CoalescingInterceptor())
+ *     return builder
+ * }
+ * // 单个接口关闭合并
+ * @Headers(CoalescingInterceptor.NO_COALESCE + ": true")
+ * ```
+ * @param keyHeaders List<String> 参与比较的请求头，值不同的请求不合并
+ * @param maxBodySize Long 可以合并的最大响应体(字节)
+ * @param maxWaitMs Long 等待相同请求的最长时间(ms)
+ */
+class CoalescingInterceptor @JvmOverloads constructor(
+    private val keyHeaders: List<String> = listOf("Authorization", "Cookie", "Accept", "Accept-Language", "Range"),
+    private val maxBodySize: Long = 1024 * 1024L,
+    private val maxWaitMs: Long = 3000
+) : Interceptor {
+
+    /**
+     * 一次正在进行的请求
+     */
+    private class Flight {
+        val latch = CountDownLatch(1)
+
+        /** 成功时的响应（响应体已经读取到 [body]） */
+        @Volatile
+        var response: Response? = null
+
+        @Volatile
+        var body: ByteArray? = null
+
+        @Volatile
+        var error: IOException? = null
+
+        /** 不能共享（响应体太大、第一个调用被取消），等待的调用各自请求 */
+        @Volatile
+        var unshared = false
+    }
+
+    private val flightMap: ConcurrentHashMap<String, Flight> = ConcurrentHashMap()
+
+    override fun intercept(chain: Interceptor.Chain): Response {
+        val request = chain.request()
+        if (request.header(NO_COALESCE) != null) {
+            return chain.proceed(request.newBuilder().removeHeader(NO_COALESCE).build())
+        }
+        if (request.method != "GET" && request.method != "HEAD") {
+            return chain.proceed(request)
+        }
+        val key = key(request)
+        val flight = Flight()
+        val existing = flightMap.putIfAbsent(key, flight)
+        if (existing != null) {
+            return follow(chain, existing)
+        }
+        try {
+            return lead(chain, flight)
+        } finally {
+            flightMap.remove(key, flight)
+            flight.latch.countDown()
+        }
+    }
+
+    /**
+     * 第一个调用请求网络，读取响应体后分发
+     */
+    private fun lead(chain: Interceptor.Chain, flight: Flight): Response {
+        val response = try {
+            chain.proceed(chain.request())
+        } catch (e: IOException) {
+            if (chain.call().isCanceled()) flight.unshared = true else flight.error = e
+            throw e
+        }
+        val body = response.body ?: return response.also { flight.response = it; flight.body = ByteArray(0) }
+        val contentLength = body.contentLength()
+        if (contentLength > maxBodySize) {
+            flight.unshared = true
+            return response
+        }
+        //peek 不消费原响应体，太大时原响应仍然可以完整地交给调用方
+        val peeked = try {
+            response.peekBody(maxBodySize + 1)
+        } catch (e: IOException) {
+            response.close()
+            if (chain.call().isCanceled()) flight.unshared = true else flight.error = e
+            throw e
+        }
+        if (peeked.contentLength() > maxBodySize) {
+            flight.unshared = true
+            return response
+        }
+        val bytes = peeked.bytes()
+        response.close()
+        flight.body = bytes
+        flight.response = response
+        return copy(response, chain.request(), bytes)
+    }
+
+    /**
+     * 等待相同的请求完成，超过 [maxWaitMs] 时各自请求
+     */
+    private fun follow(chain: Interceptor.Chain, flight: Flight): Response {
+        //等待期间自己的调用被取消时立即返回
+        val deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMs)
+        while (!flight.latch.await(CANCEL_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+            if (chain.call().isCanceled()) {
+                throw IOException("Canceled")
+            }
+            if (System.nanoTime() - deadline >= 0) {
+                return chain.proceed(chain.request())
+            }
+        }
+        //异常对象不能在多个线程之间共享抛出，每个调用各自包装一个
+        flight.error?.let { throw IOException(it.message, it) }
+        val response = flight.response
+        val body = flight.body
+        if (flight.unshared || response == null || body == null) {
+            return chain.proceed(chain.request())
+        }
+        return copy(response, chain.request(), body)
+    }
+
+    /**
+     * 每个调用各自的响应，响应体是同一份数据的独立副本
+     */
+    private fun copy(response: Response, request: Request, bytes: ByteArray): Response {
+        return response.newBuilder()
+            .request(request)
+            .body(bytes.toResponseBody(response.body?.contentType()))
+            .build()
+    }
+
+    private fun key(request: Request): String {
+        return buildString {
+            append(request.method).append(' ').append(request.url)
+            keyHeaders.forEach { name ->
+                request.headers(name).forEach { append('\n').append(name).append(':').append(it) }
+            }
+        }
+    }
+
+    companion object {
+        /** 带上该请求头（任意值）的请求不合并 */
+        const val NO_COALESCE = "X-No-Coalesce"
+
+        /** 等待期间检查调用是否被取消的间隔(ms) */
+        private const val CANCEL_CHECK_INTERVAL = 100L
+    }
+}
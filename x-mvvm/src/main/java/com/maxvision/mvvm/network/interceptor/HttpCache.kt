@@ -0,0 +1,33 @@
+package com.maxvision.mvvm.network.interceptor
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 接口的 HTTP 缓存策略，标注在 ApiService 的方法上，由 [CacheInterceptor] 通过 Retrofit 的 Invocation 读取
+ * 只对 GET 请求生效，需要同时给 OkHttpClient 设置 Cache
+ *
+ * 使用示例：
+ * ```kotlin
+ * interface ApiService {
+ *     // 60 秒内直接使用缓存；请求失败时一天内的缓存仍然可用
+ *     @HttpCache(maxAge = 60, staleIfError = 24 * 60 * 60)
+ *     @GET("article/list/{page}/json")
+ *     suspend fun getArticleList(@Path("page") page: Int): ApiResponse<ApiPagerResponse<ArrayList<ArticleResponse>>>
+ *
+ *     // 在线时总是请求网络，离线时使用缓存
+ *     @HttpCache(offlineOnly = true)
+ *     @GET("banner/json")
+ *     suspend fun getBanner(): ApiResponse<ArrayList<BannerResponse>>
+ * }
+ * ```
+ * @param maxAge Int 缓存有效期(秒)，期间不请求网络
+ * @param staleIfError Int 请求失败（网络错误、5xx）或离线时，过期多久(秒)以内的缓存仍然可以使用
+ * @param offlineOnly Boolean 只在离线时使用缓存（不限过期时间），在线时总是请求网络
+ */
+@Target(AnnotationTarget.FUNCTION)
+@Retention(AnnotationRetention.RUNTIME)
+annotation class HttpCache(
+    val maxAge: Int = 0,
+    val staleIfError: Int = 0,
+    val offlineOnly: Boolean = false
+)
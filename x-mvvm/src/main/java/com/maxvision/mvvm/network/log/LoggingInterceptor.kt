@@ -1,5 +1,7 @@
 package com.maxvision.mvvm.network.log
 
+import com.maxvision.mvvm.network.route.RoutePolicy
+import com.maxvision.mvvm.network.route.RouteTable
 import okhttp3.Headers
 import okhttp3.Interceptor
 import okhttp3.MediaType
@@ -17,12 +19,17 @@ class LoggingInterceptor private constructor(private val builder: Builder) : Int
 
     private val isDebug: Boolean
     private val charset: Charset
-    private val excludeList: MutableList<String>  // 排除的 path 列表
+    private val excludeList: List<String>  // 排除的 path，按字符串包含匹配
+    private val excludeTable: RouteTable  // 带 {name} 的排除 path，编译后从路径开头按段匹配
 
     init {
         this.isDebug = builder.isDebug
         this.charset = Charset.forName("UTF-8")
-        this.excludeList = builder.excludeList
+        val (patterns, paths) = builder.excludeList.partition { it.contains('{') }
+        this.excludeList = paths
+        this.excludeTable = RouteTable.Builder().apply {
+            patterns.forEach { prefix(it, RoutePolicy(logging = false)) }
+        }.build()
     }
 
     @Throws(IOException::class)
@@ -30,18 +37,13 @@ class LoggingInterceptor private constructor(private val builder: Builder) : Int
 
         var request = chain.request()
 
-        if (excludeList.size > 0) {
-            var flag = false
-            excludeList.forEach {
-                if (request.url.encodedPath.contains(it)) {
-                    flag = true
-                    return@forEach
-                }
-            }
-
-            if (flag) {
-                return chain.proceed(request)
-            }
+        //请求上的 RoutePolicy 优先，没有设置时使用 excludePath
+        val path = request.url.encodedPath
+        val logging = RoutePolicy.of(request)?.logging
+            ?: excludeTable.match(path)?.logging
+            ?: if (excludeList.any { path.contains(it) }) false else null
+        if (logging == false) {
+            return chain.proceed(request)
         }
 
         if (builder.headers.size > 0) {
@@ -305,7 +307,8 @@ class LoggingInterceptor private constructor(private val builder: Builder) : Int
 
         /**
          * 排除针对某个 path 进行打印日志，
-         * 可以不断添加 path
+         * 可以不断添加 path，请求路径中包含该字符串时匹配，例如 "upload" 匹配 /api/v1/upload/file，".png" 匹配图片；
+         * 带 {name} 的 path 表示任意一段，从路径开头按段匹配该路径及以下的所有路径，见 RouteTable
          */
         fun excludePath(path: String): Builder {
             this.excludeList.add(path)
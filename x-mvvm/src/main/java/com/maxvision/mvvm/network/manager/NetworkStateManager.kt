@@ -1,7 +1,14 @@
 package com.maxvision.mvvm.network.manager
 
+import android.content.Context
+import android.net.ConnectivityManager
+import android.net.Network
+import android.net.NetworkCapabilities
 import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.asSharedFlow
+import kotlinx.coroutines.flow.asStateFlow
 
 /**
  * 作者　: cl
@@ -13,6 +20,7 @@ import kotlinx.coroutines.flow.asSharedFlow
  * 2. 线程安全的网络状态管理
  * 3. 防止重复通知
  * 4. 生命周期安全
+ * 5. 通过 [register] 注册 NetworkCallback 监听默认网络，替代已废弃的 CONNECTIVITY_ACTION 广播
  */
 class NetworkStateManager private constructor() {
 
@@ -43,6 +51,16 @@ class NetworkStateManager private constructor() {
      */
     @Volatile
     private var currentState: NetState? = null
+
+    private val _unmeteredFlow = MutableStateFlow(false)
+
+    /**
+     * 当前网络是否不计流量（一般是 Wi-Fi），只在 [register] 之后更新
+     * 网络在 Wi-Fi 和移动数据之间切换时 [networkStateFlow] 不一定通知，需要区分时收集这里
+     */
+    val unmeteredFlow: StateFlow<Boolean> = _unmeteredFlow.asStateFlow()
+
+    private var registered = false
     
     /**
      * 发送网络状态变化
@@ -65,6 +83,39 @@ class NetworkStateManager private constructor() {
      */
     fun getCurrentState(): NetState? = currentState
 
+    /**
+     * 注册默认网络的监听，BaseApplication 初始化时调用，重复调用无效
+     * 第一次回调只记录初始状态，不发送通知
+     */
+    @Synchronized
+    fun register(context: Context) {
+        if (registered) {
+            return
+        }
+        registered = true
+        val connectivityManager = context.applicationContext
+            .getSystemService(Context.CONNECTIVITY_SERVICE) as ConnectivityManager
+        connectivityManager.registerDefaultNetworkCallback(object : ConnectivityManager.NetworkCallback() {
+            override fun onCapabilitiesChanged(network: Network, capabilities: NetworkCapabilities) {
+                _unmeteredFlow.value = capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED)
+                onState(capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET))
+            }
+
+            override fun onLost(network: Network) {
+                _unmeteredFlow.value = false
+                onState(false)
+            }
+        })
+    }
+
+    private fun onState(isSuccess: Boolean) {
+        if (currentState == null) {
+            currentState = NetState(isSuccess = isSuccess)
+            return
+        }
+        postNetworkState(NetState(isSuccess = isSuccess))
+    }
+
     companion object {
         val instance: NetworkStateManager by lazy(mode = LazyThreadSafetyMode.SYNCHRONIZED) {
             NetworkStateManager()
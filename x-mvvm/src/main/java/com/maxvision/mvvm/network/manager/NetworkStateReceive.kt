@@ -15,7 +15,9 @@ import com.maxvision.mvvm.util.NetworkUtil
  * 1. 使用 NetworkStateManager.postNetworkState 发送状态
  * 2. 简化逻辑，防止重复通知的工作交给 Manager
  * 3. 更清晰的代码结构
+ * 框架已经不再注册该接收器，见 [NetworkStateManager.register]
  */
+@Deprecated("CONNECTIVITY_ACTION 已废弃，框架改为 NetworkStateManager.register 注册 NetworkCallback")
 class NetworkStateReceive : BroadcastReceiver() {
     
     /**
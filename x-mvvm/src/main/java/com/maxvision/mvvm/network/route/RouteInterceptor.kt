@@ -0,0 +1,61 @@
+package com.maxvision.mvvm.network.route
+
+import okhttp3.Interceptor
+import okhttp3.Response
+import java.io.IOException
+import java.util.concurrent.TimeUnit
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 为请求匹配 [RoutePolicy]，作为 tag 附加到请求上，并应用其中的超时、重试和优先级
+ * 每个请求只匹配一次，其他拦截器通过 [RoutePolicy.of] 读取，所以需要在其他拦截器之前添加
+ * 优先级：有更高优先级的请求正在进行时，低优先级的请求最多等待 maxPriorityWaitMs 再发出
+ *
+ * 使用示例：
+ * ```kotlin
+ * override fun setHttpClientBuilder(builder: OkHttpClient.Builder): OkHttpClient.Builder {
+ *     builder.addInterceptor(RouteInterceptor(routeTable))
+ *     CacheInterceptor.install(builder, cache)
+ *     builder.addInterceptor(loggingInterceptor)
+ *     return builder
+ * }
+ * ```
+ */
+class RouteInterceptor @JvmOverloads constructor(
+    private val table: RouteTable,
+    maxPriorityWaitMs: Long = 3000
+) : Interceptor {
+
+    private val gate = RoutePriorityGate(maxPriorityWaitMs)
+
+    override fun intercept(chain: Interceptor.Chain): Response {
+        val policy = table.match(chain.request().url.encodedPath) ?: return chain.proceed(chain.request())
+        val priority = policy.priority ?: return proceed(chain, policy)
+        gate.enter(priority)
+        try {
+            return proceed(chain, policy)
+        } finally {
+            gate.exit(priority)
+        }
+    }
+
+    private fun proceed(chain: Interceptor.Chain, policy: RoutePolicy): Response {
+        val request = chain.request().newBuilder().tag(RoutePolicy::class.java, policy).build()
+        val next = policy.timeoutMs?.let {
+            chain.withConnectTimeout(it, TimeUnit.MILLISECONDS)
+                .withReadTimeout(it, TimeUnit.MILLISECONDS)
+                .withWriteTimeout(it, TimeUnit.MILLISECONDS)
+        } ?: chain
+        //只重试幂等的请求
+        val retry = if (request.method == "GET" || request.method == "HEAD") policy.retry else 0
+        var attempt = 0
+        while (true) {
+            try {
+                return next.proceed(request)
+            } catch (e: IOException) {
+                if (attempt++ >= retry || chain.call().isCanceled()) throw e
+            }
+        }
+    }
+}
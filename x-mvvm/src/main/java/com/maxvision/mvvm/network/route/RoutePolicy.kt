@@ -0,0 +1,41 @@
+package com.maxvision.mvvm.network.route
+
+import com.maxvision.mvvm.network.interceptor.HttpCache
+import okhttp3.Request
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 一组接口的请求策略，在 [RouteTable] 中按路径声明
+ * 由 [RouteInterceptor] 匹配后作为 tag 附加到请求上，其他拦截器通过 [of] 读取，不需要各自解析路径
+ * 为 null 的设置表示不修改，使用客户端或者拦截器自己的默认值
+ * @param logging Boolean? 是否打印日志，见 LoggingInterceptor
+ * @param timeoutMs Int? 连接、读、写超时(ms)
+ * @param retry Int 网络错误时的重试次数，只对 GET/HEAD 生效
+ * @param cache HttpCache? 缓存策略，接口上有 [HttpCache] 注解时以注解为准，见 CacheInterceptor
+ * @param priority Int? 优先级，数值越大越优先；有更高优先级的请求正在进行时，低优先级的请求等待，见 [RouteInterceptor]
+ */
+data class RoutePolicy(
+    val logging: Boolean? = null,
+    val timeoutMs: Int? = null,
+    val retry: Int = 0,
+    val cache: HttpCache? = null,
+    val priority: Int? = null
+) {
+
+    companion object {
+        /** 后台预取、上报等可以让路的请求 */
+        const val PRIORITY_LOW = -1
+
+        const val PRIORITY_NORMAL = 0
+
+        /** 页面首屏等用户正在等待的请求 */
+        const val PRIORITY_HIGH = 1
+
+        /**
+         * 读取请求匹配到的策略
+         * @return RoutePolicy? 没有添加 [RouteInterceptor] 或者没有匹配的路径时返回 null
+         */
+        fun of(request: Request): RoutePolicy? = request.tag(RoutePolicy::class.java)
+    }
+}
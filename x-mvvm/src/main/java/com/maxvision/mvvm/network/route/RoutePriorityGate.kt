@@ -0,0 +1,44 @@
+package com.maxvision.mvvm.network.route
+
+import android.os.SystemClock
+import java.util.TreeMap
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 按 [RoutePolicy.priority] 让路：有更高优先级的请求正在进行时，低优先级的请求等待它们结束再发出
+ * OkHttp 的 Dispatcher 按先后顺序执行，没有优先级，这里在拦截器中推迟低优先级的请求，把带宽留给高优先级的请求。
+ * 等待最多 [maxWaitMs]，超时后照常发出，高优先级的请求一直不结束时不会饿死低优先级的请求；
+ * 等待期间占用 Dispatcher 的线程和同一主机的并发名额，低优先级的接口不宜大量并发
+ * 没有设置优先级的请求既不等待也不计入
+ */
+internal class RoutePriorityGate(private val maxWaitMs: Long) {
+
+    private val lock = Object()
+
+    //优先级 -> 正在进行的数量
+    private val running = TreeMap<Int, Int>()
+
+    /**
+     * 等待更高优先级的请求结束后进入，必须和 [exit] 成对调用
+     */
+    fun enter(priority: Int) {
+        synchronized(lock) {
+            val deadline = SystemClock.elapsedRealtime() + maxWaitMs
+            while (running.higherKey(priority) != null) {
+                val remaining = deadline - SystemClock.elapsedRealtime()
+                if (remaining <= 0) break
+                lock.wait(remaining)
+            }
+            running[priority] = (running[priority] ?: 0) + 1
+        }
+    }
+
+    fun exit(priority: Int) {
+        synchronized(lock) {
+            val count = running[priority] ?: return
+            if (count <= 1) running.remove(priority) else running[priority] = count - 1
+            lock.notifyAll()
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.maxvision.mvvm.network.route
+
+/**
+ * 作者　: cl
+ * 时间　: 2026/10/17
+ * 描述　: 按路径匹配 [RoutePolicy]，声明的路径在创建时编译成按路径段索引的前缀树
+ * 固定的段逐段查表，不需要和每个声明逐个比较；固定的段后面没有匹配时会回退尝试 `{name}` 分支，
+ * 声明中 `{name}` 和固定的段交错较多时，最坏情况下需要尝试多个分支
+ *
+ * 路径按 '/' 分段，和 Retrofit 一样用 `{name}` 表示任意一段，可以直接使用接口上的路径；
+ * [Builder.route] 只匹配完整的路径，[Builder.prefix] 匹配该路径及以下所有路径。
+ * 多个声明都能匹配时使用最具体的：逐段比较，固定的段优先于 `{name}`，完整路径优先于前缀
+ *
+ * 使用示例：
+ * ```kotlin
+ * val routeTable = RouteTable.Builder()
+ *     .prefix("upload", RoutePolicy(logging = false, timeoutMs = 60_000))
+ *     .route("article/list/{page}/json", RoutePolicy(retry = 2, cache = HttpCache(maxAge = 60)))
+ *     .prefix("log/report", RoutePolicy(priority = RoutePolicy.PRIORITY_LOW))
+ *     .build()
+ * ```
+ */
+class RouteTable private constructor(private val root: Node) {
+
+    private class Node {
+        val children = HashMap<String, Node>()
+
+        /** `{name}` 对应的子节点 */
+        var wildcard: Node? = null
+
+        /** 路径在该节点结束时的策略 */
+        var policy: RoutePolicy? = null
+
+        /** 前缀的策略，匹配该节点及以下所有路径 */
+        var prefixPolicy: RoutePolicy? = null
+    }
+
+    /**
+     * 查找路径对应的策略
+     * @param path String 请求路径，一般是 url.encodedPath
+     * @return RoutePolicy? 没有匹配时返回 null
+     */
+    fun match(path: String): RoutePolicy? {
+        return match(root, segments(path), 0)
+    }
+
+    private fun match(node: Node, segments: List<String>, index: Int): RoutePolicy? {
+        if (index == segments.size) {
+            return node.policy ?: node.prefixPolicy
+        }
+        node.children[segments[index]]?.let { child ->
+            match(child, segments, index + 1)?.let { return it }
+        }
+        node.wildcard?.let { child ->
+            match(child, segments, index + 1)?.let { return it }
+        }
+        return node.prefixPolicy
+    }
+
+    class Builder {
+
+        private val root = Node()
+
+        /**
+         * 声明完整路径的策略，相同的路径以后声明的为准
+         */
+        fun route(pattern: String, policy: RoutePolicy): Builder {
+            nodeOf(pattern).policy = policy
+            return this
+        }
+
+        /**
+         * 声明路径及以下所有路径的策略，相同的路径以后声明的为准
+         */
+        fun prefix(pattern: String, policy: RoutePolicy): Builder {
+            nodeOf(pattern).prefixPolicy = policy
+            return this
+        }
+
+        fun build() = RouteTable(root)
+
+        private fun nodeOf(pattern: String): Node {
+            var node = root
+            segments(pattern).forEach { segment ->
+                node = if (segment.startsWith('{') && segment.endsWith('}')) {
+                    node.wildcard ?: Node().also { node.wildcard = it }
+                } else {
+                    node.children.getOrPut(segment) { Node() }
+                }
+            }
+            return node
+        }
+    }
+
+    companion object {
+        private fun segments(path: String): List<String> = path.split('/').filter { it.isNotEmpty() }
+    }
+}